@@ -0,0 +1,83 @@
+package benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import common.BinaryCodec;
+import common.Codec;
+import common.CompressedCodec;
+import common.FrameCodec;
+import common.Message;
+import common.SerializedCodec;
+
+/**
+ * 消息编解码：编码、解码和完整往返，比较二进制、Java 序列化和压缩包装
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({"binary", "serialized", "binary+deflate"})
+    public String codecName;
+
+    // 聊天内容长度（字符），1024 超过默认压缩阈值
+    @Param({"32", "1024"})
+    public int contentLength;
+
+    private Codec codec;
+    private Message message;
+    private ByteBuffer payload;
+
+    @Setup
+    public void setup() throws IOException {
+        switch (codecName) {
+            case "binary":
+                codec = BinaryCodec.INSTANCE;
+                break;
+            case "serialized":
+                codec = SerializedCodec.INSTANCE;
+                break;
+            default:
+                codec = CompressedCodec.of(BinaryCodec.INSTANCE);
+        }
+        char[] text = new char[contentLength];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = i % 7 == 0 ? ' ' : "聊天室消息abcdef".charAt(i % 11);
+        }
+        message = new Message("CHAT", "user42", new String(text));
+        message.setTarget("大厅");
+        message.setSeq(123456);
+        ByteBuffer frame = codec.encode(message);
+        frame.position(FrameCodec.HEADER_SIZE);
+        payload = frame.slice();
+    }
+
+    @Benchmark
+    public ByteBuffer encode() throws IOException {
+        return codec.encode(message);
+    }
+
+    @Benchmark
+    public Message decode() throws IOException {
+        return codec.decode(payload.duplicate());
+    }
+
+    @Benchmark
+    public Message roundTrip() throws IOException {
+        ByteBuffer frame = codec.encode(message);
+        frame.position(frame.position() + FrameCodec.HEADER_SIZE);
+        return codec.decode(frame);
+    }
+
+    // 帧大小打印在结果之外，便于对照
+    @TearDown
+    public void report() throws IOException {
+        System.out.println(codecName + " 帧大小 " + codec.encode(message).remaining() + " 字节");
+    }
+}
\ No newline at end of file
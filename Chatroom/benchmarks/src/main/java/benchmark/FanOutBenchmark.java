@@ -0,0 +1,57 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import common.Message;
+import server.ChatProtocol;
+import server.UserManager;
+
+/**
+ * 广播扇出：一条消息发给全部在线用户的耗时，随接收人数增长
+ * 用系统消息广播，不写聊天记录也不进搜索索引，只测编码一次、逐个入队的开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int recipients;
+
+    private UserManager userManager;
+    private final List<SinkSession> sinks = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        userManager = new UserManager();
+        ChatProtocol protocol = new ChatProtocol(userManager);
+        for (int i = 0; i < recipients; i++) {
+            SinkSession sink = new SinkSession(protocol);
+            userManager.addUser("user" + i, sink);
+            sinks.add(sink);
+        }
+    }
+
+    @Benchmark
+    public void broadcast() {
+        // 每次新建消息，避免复用上一轮的编码缓存
+        userManager.broadcastMessage(new Message("SYSTEM", "系统", "服务器将于 10 分钟后维护"));
+    }
+
+    @TearDown
+    public void check() {
+        long frames = 0;
+        for (SinkSession sink : sinks) {
+            frames += sink.getFrames();
+        }
+        if (frames == 0) {
+            throw new IllegalStateException("没有消息到达接收端");
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,273 @@
+package benchmark;
+
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import common.Codec;
+import common.FrameCodec;
+import common.Handshake;
+import common.LatencyHistogram;
+import common.Message;
+
+/**
+ * 无界面压测工具：在一个进程中打开大量模拟客户端，登录后按固定速率发送聊天消息，
+ * 统计端到端送达延迟、吞吐量、登录耗时和断开次数
+ * 每个客户端用一个虚拟线程接收、一个虚拟线程发送；消息内容带有计划发送时刻，
+ * 接收方在同一进程中用它计算延迟（按计划时刻而非实际发送时刻，发送端落后也会计入延迟）
+ *
+ * 参数均通过 -Dload.* 配置：
+ *   host / port      服务器地址，默认 localhost:8888
+ *   clients          客户端数，默认 1000
+ *   rate             每个客户端每秒发送的消息数，默认 1
+ *   size             消息内容字节数，默认 100
+ *   seconds          发送持续时间，默认 60
+ *   roomSize         每个房间的客户端数，0 表示全部在大厅，默认 50
+ *   prefix           用户名前缀，默认 load
+ */
+public class LoadGenerator {
+    private static final String MARKER = "LOAD:";
+    private static final long REPORT_MILLIS = 5000;
+    private static final long LOGIN_TIMEOUT_MILLIS = 30000;
+
+    private final String host = System.getProperty("load.host", "localhost");
+    private final int port = Integer.getInteger("load.port", 8888);
+    private final int clientCount = Integer.getInteger("load.clients", 1000);
+    private final double rate = Double.parseDouble(System.getProperty("load.rate", "1"));
+    private final int size = Integer.getInteger("load.size", 100);
+    private final int seconds = Integer.getInteger("load.seconds", 60);
+    private final int roomSize = Integer.getInteger("load.roomSize", 50);
+    private final String prefix = System.getProperty("load.prefix", "load");
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram loginTime = new LatencyHistogram();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder loginFailures = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private volatile boolean sending;
+    private volatile boolean stopping;
+
+    /**
+     * 一个模拟客户端
+     */
+    private class Client {
+        final String username;
+        final String room;
+        Socket socket;
+        DataOutputStream output;
+        DataInputStream input;
+        Codec codec;
+
+        Client(int index) {
+            this.username = prefix + index;
+            this.room = roomSize > 0 ? "房间" + (index / roomSize) : null;
+        }
+
+        // 连接、握手、登录，成功后加入自己的房间
+        boolean login() {
+            long start = System.nanoTime();
+            try {
+                socket = new Socket(host, port);
+                socket.setTcpNoDelay(true);
+                output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                socket.setSoTimeout((int) LOGIN_TIMEOUT_MILLIS);
+                codec = Handshake.connect(input, output, Handshake.preferredCodec());
+                send(new Message("LOGIN", username, ""));
+                // 登录结果之前可能先到 PING 或其它消息：应答 PING，其余跳过，总时长仍受登录超时限制
+                Message response;
+                do {
+                    response = FrameCodec.readFrame(input, codec);
+                    if ("PING".equals(response.getType())) {
+                        send(new Message("PONG", username, ""));
+                    }
+                    if (System.nanoTime() - start > TimeUnit.MILLISECONDS.toNanos(LOGIN_TIMEOUT_MILLIS)) {
+                        throw new SocketTimeoutException("登录超时");
+                    }
+                } while (!"LOGIN_SUCCESS".equals(response.getType()) && !"LOGIN_FAIL".equals(response.getType()));
+                socket.setSoTimeout(0);
+                if (!"LOGIN_SUCCESS".equals(response.getType())) {
+                    loginFailures.increment();
+                    close();
+                    return false;
+                }
+                loginTime.record((System.nanoTime() - start) / 1000);
+                if (room != null) {
+                    Message join = new Message("JOIN_ROOM", username, "");
+                    join.setTarget(room);
+                    send(join);
+                }
+                return true;
+            } catch (IOException e) {
+                // 连接失败或登录超时
+                loginFailures.increment();
+                close();
+                return false;
+            }
+        }
+
+        synchronized void send(Message message) throws IOException {
+            FrameCodec.writeFrame(output, codec, message);
+            output.flush();
+        }
+
+        void receive() {
+            try {
+                while (true) {
+                    Message message = FrameCodec.readFrame(input, codec);
+                    if ("CHAT".equals(message.getType()) && message.getContent().startsWith(MARKER)) {
+                        String content = message.getContent();
+                        int end = content.indexOf(' ', MARKER.length());
+                        long scheduled = Long.parseLong(content.substring(MARKER.length(), end));
+                        latency.record((System.nanoTime() - scheduled) / 1000);
+                        delivered.increment();
+                    } else if ("PING".equals(message.getType())) {
+                        send(new Message("PONG", username, ""));
+                    } else if ("FORCE_LOGOUT".equals(message.getType())) {
+                        disconnects.increment();
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                if (!stopping) {
+                    disconnects.increment();
+                }
+            } finally {
+                close();
+            }
+        }
+
+        // 按固定间隔发送，起始时刻随机错开，避免所有客户端同时发送
+        void sendLoop(long deadline) {
+            long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+            long next = System.nanoTime() + ThreadLocalRandom.current().nextLong(interval);
+            String padding = "x".repeat(Math.max(0, size - MARKER.length() - 20));
+            try {
+                while (sending && next < deadline && !socket.isClosed()) {
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                    Message chat = new Message("CHAT", username, MARKER + next + " " + padding);
+                    chat.setTarget(room);
+                    send(chat);
+                    sent.increment();
+                    next += interval;
+                }
+            } catch (IOException e) {
+                // 连接断开，由接收线程计数
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void logout() {
+            try {
+                send(new Message("LOGOUT", username, ""));
+            } catch (IOException e) {
+                // 已断开
+            }
+        }
+
+        void close() {
+            try {
+                if (socket != null) {
+                    socket.close();
+                }
+            } catch (IOException e) {
+                // 忽略关闭时的异常
+            }
+        }
+    }
+
+    public void run() throws InterruptedException {
+        System.out.printf("压测 %s:%d，%d 个客户端，每个每秒 %.2f 条，消息 %d 字节，持续 %d 秒，%s%n",
+            host, port, clientCount, rate, size, seconds,
+            roomSize > 0 ? "每房间 " + roomSize + " 人" : "全部在大厅");
+
+        // 登录风暴：所有客户端同时连接
+        List<Client> clients = new ArrayList<>();
+        CountDownLatch loggedIn = new CountDownLatch(clientCount);
+        List<Client> online = Collections.synchronizedList(new ArrayList<>());
+        long loginStart = System.nanoTime();
+        for (int i = 0; i < clientCount; i++) {
+            Client client = new Client(i);
+            clients.add(client);
+            Thread.ofVirtual().name("load-login-" + i).start(() -> {
+                if (client.login()) {
+                    online.add(client);
+                    Thread.ofVirtual().name("load-recv-" + client.username).start(client::receive);
+                }
+                loggedIn.countDown();
+            });
+        }
+        loggedIn.await();
+        long loginMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loginStart);
+        System.out.printf("登录完成：成功 %d，失败 %d，用时 %d ms；登录耗时 %s%n",
+            online.size(), loginFailures.sum(), loginMillis, loginTime.summary());
+        if (online.isEmpty()) {
+            return;
+        }
+
+        // 稳定发送阶段
+        Thread.sleep(1000); // 等加入房间生效
+        sending = true;
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(seconds);
+        List<Thread> senders = new ArrayList<>();
+        for (Client client : online) {
+            senders.add(Thread.ofVirtual().name("load-send-" + client.username).start(() -> client.sendLoop(deadline)));
+        }
+        long lastSent = 0;
+        long lastDelivered = 0;
+        long lastReport = start;
+        while (System.nanoTime() < deadline) {
+            Thread.sleep(Math.min(REPORT_MILLIS, Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()))));
+            long now = System.nanoTime();
+            double interval = (now - lastReport) / 1e9;
+            long s = sent.sum();
+            long d = delivered.sum();
+            System.out.printf("[%3d s] 发送 %.0f 条/秒，送达 %.0f 条/秒，断开 %d；延迟 %s%n",
+                TimeUnit.NANOSECONDS.toSeconds(now - start), (s - lastSent) / interval, (d - lastDelivered) / interval,
+                disconnects.sum(), latency.summary());
+            lastSent = s;
+            lastDelivered = d;
+            lastReport = now;
+        }
+        sending = false;
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        Thread.sleep(2000); // 等待在途消息送达
+
+        stopping = true;
+        for (Client client : online) {
+            client.logout();
+        }
+        Thread.sleep(500);
+        for (Client client : clients) {
+            client.close();
+        }
+
+        System.out.println("===== 压测结果 =====");
+        System.out.printf("登录：成功 %d，失败 %d，全部登录用时 %d ms，单个登录 %s%n",
+            online.size(), loginFailures.sum(), loginMillis, loginTime.summary());
+        System.out.printf("发送：%d 条，%.0f 条/秒%n", sent.sum(), sent.sum() / elapsed);
+        System.out.printf("送达：%d 条，%.0f 条/秒%n", delivered.sum(), delivered.sum() / elapsed);
+        System.out.printf("端到端延迟：%s%n", latency.summary());
+        System.out.printf("意外断开：%d%n", disconnects.sum());
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        new LoadGenerator().run();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,82 @@
+package benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import server.ChatProtocol;
+import server.ClientSession;
+import server.UserManager;
+
+/**
+ * 用户登记表的并发争用：多个线程同时登录、下线同一批用户名，
+ * 以及在登录风暴期间查询在线会话
+ * names 越小，同名争用越激烈
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistryBenchmark {
+    @Param({"16", "100000"})
+    public int names;
+
+    private UserManager userManager;
+    private ChatProtocol protocol;
+    private String[] pool;
+
+    /**
+     * 每个线程一个会话，模拟一个不断重连的客户端
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        ClientSession session;
+
+        @Setup
+        public void setup(RegistryBenchmark benchmark) {
+            session = new SinkSession(benchmark.protocol);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        userManager = new UserManager();
+        protocol = new ChatProtocol(userManager);
+        pool = new String[names];
+        for (int i = 0; i < names; i++) {
+            pool[i] = "user" + i;
+        }
+    }
+
+    private String randomName() {
+        return pool[ThreadLocalRandom.current().nextInt(pool.length)];
+    }
+
+    // 登录后立即下线；用户名被占用时只算一次失败的登录
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean loginLogout(Client client) {
+        String name = randomName();
+        return userManager.addUser(name, client.session) && userManager.removeUser(name, client.session);
+    }
+
+    @Benchmark
+    @Group("storm")
+    @GroupThreads(2)
+    public boolean stormLogin(Client client) {
+        String name = randomName();
+        return userManager.addUser(name, client.session) && userManager.removeUser(name, client.session);
+    }
+
+    // 与登录风暴同时进行的查询，如私聊和踢人时查找会话
+    @Benchmark
+    @Group("storm")
+    @GroupThreads(6)
+    public void stormLookup(Blackhole blackhole) {
+        blackhole.consume(userManager.getUserSession(randomName()));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,47 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import server.ChatProtocol;
+import server.UserManager;
+
+/**
+ * 花名册快照：生成排序后的完整用户列表（O(N log N)）并只编码一次，所有会话共享同一份帧，
+ * 扇出是 O(N)，总成本近似随在线人数线性增长
+ * snapshotToOne 只发给一个会话，用来区分生成快照和扇出的开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RosterBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int rosterSize;
+
+    private UserManager userManager;
+    private SinkSession observer;
+
+    @Setup
+    public void setup() {
+        userManager = new UserManager();
+        ChatProtocol protocol = new ChatProtocol(userManager);
+        for (int i = 0; i < rosterSize; i++) {
+            userManager.addUser("user" + i, new SinkSession(protocol));
+        }
+        observer = new SinkSession(protocol);
+    }
+
+    @Benchmark
+    public void broadcastUserList() {
+        userManager.broadcastUserList();
+    }
+
+    @Benchmark
+    public void snapshotToOne() {
+        userManager.sendRosterSnapshot(observer);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,67 @@
+package benchmark;
+
+import java.io.IOException;
+
+import common.BinaryCodec;
+import common.Codec;
+import server.ChatProtocol;
+import server.ClientSession;
+import server.EncodedMessage;
+
+/**
+ * 内存中的会话：入队的消息在发送线程上立即取出并计数，不经过网络
+ * 测得的是服务器自身的编码、入队和出队开销
+ */
+public class SinkSession extends ClientSession {
+    private final Codec codec;
+    private long frames;
+    private long bytes;
+
+    public SinkSession(ChatProtocol protocol) {
+        this(protocol, BinaryCodec.INSTANCE);
+    }
+
+    public SinkSession(ChatProtocol protocol, Codec codec) {
+        super(protocol);
+        this.codec = codec;
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    protected int inboundBufferBytes() {
+        return 0;
+    }
+
+    // 同一会话可能被多个线程同时发送，计数放在锁内
+    protected synchronized void scheduleWrite() {
+        EncodedMessage message;
+        while ((message = outbound.poll()) != null) {
+            try {
+                bytes += message.readOnlyFrame(codec).remaining();
+            } catch (IOException e) {
+                // 编码失败的消息不计数
+            }
+            frames++;
+            outbound.written();
+        }
+        onDrained();
+    }
+
+    public synchronized long getFrames() {
+        return frames;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public String getRemoteAddress() {
+        return "sink";
+    }
+
+    protected void closeTransport() {
+        // 没有底层连接
+    }
+}
\ No newline at end of file
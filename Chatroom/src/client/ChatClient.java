@@ -1,7 +1,10 @@
 package client;
 
 import java.io.*;
-import java.net.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
@@ -11,128 +14,186 @@ import javax.swing.SwingUtilities;
 
 import java.awt.*;
 import java.awt.event.*; // 需要添加这个导入
+import common.CompressedCodec;
 import common.Message;
+import common.SearchQuery;
 
+/**
+ * 图形客户端：网络部分由 ChatConnection 完成，这里只负责对话框和界面
+ */
 public class ChatClient {
-    private Socket socket;
-    private ObjectOutputStream output;
-    private ObjectInputStream input;
+    private ChatConnection connection;
     private String username;
     private ClientGUI gui;
     private MessageReceiver receiver;
+    private FileTransfers fileTransfers;
     private volatile boolean connected = false;
     
+    /**
+     * 连接、握手和登录都在后台完成，结果交回界面线程处理，界面线程从不等待网络
+     */
     public void connect(String serverAddress, int port) {
-        try {
-            socket = new Socket(serverAddress, port);
-            output = new ObjectOutputStream(socket.getOutputStream());
-            input = new ObjectInputStream(socket.getInputStream());
+        // 连接并完成版本握手，协商编解码器
+        ChatConnection.connect(serverAddress, port).whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                JOptionPane.showMessageDialog(null, 
+                    "连接服务器失败: " + cause.getMessage() + 
+                    "\n请确保:\n1. 服务器已启动\n2. 防火墙已允许Java网络连接\n3. 使用正确的服务器IP地址", 
+                    "连接失败", JOptionPane.ERROR_MESSAGE);
+                System.exit(1);
+                return;
+            }
+            connection = result;
             connected = true;
             
-            System.out.println("连接到服务器成功");
+            System.out.println("连接到服务器成功，编解码: " + connection.getCodec());
             
             // 启动GUI
             gui = new ClientGUI(this);
             gui.setVisible(true);
+            fileTransfers = new FileTransfers(this, gui);
+            // 登录前就注册监听器，登录成功后紧接着到达的花名册等消息不会丢失
+            receiver = new MessageReceiver(gui, this);
+            connection.addListener(receiver);
             
             // 登录流程
-            boolean loginSuccess = performLogin();
-            
-            if (loginSuccess) {
-                // 启动消息接收线程
-                receiver = new MessageReceiver(input, gui);
-                new Thread(receiver).start();
-                System.out.println("登录成功，开始接收消息");
-            } else {
-                disconnect();
-            }
-            
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(null, 
-                "连接服务器失败: " + e.getMessage() + 
-                "\n请确保:\n1. 服务器已启动\n2. 防火墙已允许Java网络连接\n3. 使用正确的服务器IP地址", 
-                "连接失败", JOptionPane.ERROR_MESSAGE);
-            System.exit(1);
+            performLogin();
+        }));
+    }
+    
+    // 在界面线程上询问用户名并发送登录请求，服务器的答复到达后由 loginFinished 处理
+    private void performLogin() {
+        if (!isConnected()) {
+            disconnect();
+            return;
+        }
+        // 显示登录对话框
+        gui.showLoginDialog();
+        if (username == null || username.trim().isEmpty()) {
+            // 用户取消登录
+            disconnect();
+            return;
         }
+        
+        // 发送登录消息，等待服务器响应（5秒超时）
+        System.out.println("发送登录请求，用户名: " + username);
+        connection.login(username).whenComplete((ignored, error) -> SwingUtilities.invokeLater(() -> loginFinished(error)));
     }
     
-    private boolean performLogin() {
-        while (connected && !socket.isClosed()) {
-            // 显示登录对话框
-            gui.showLoginDialog();
-            if (username == null || username.trim().isEmpty()) {
-                // 用户取消登录
-                return false;
-            }
-            
-            try {
-                // 发送登录消息
-                sendLoginMessage();
-                System.out.println("已发送登录请求，用户名: " + username);
-                
-                // 等待服务器响应（设置超时时间）
-                socket.setSoTimeout(5000); // 5秒超时
-                Message response = (Message) input.readObject();
-                socket.setSoTimeout(0); // 重置超时
-                
-                if ("LOGIN_SUCCESS".equals(response.getType())) {
-                    JOptionPane.showMessageDialog(gui, "登录成功！", "提示", JOptionPane.INFORMATION_MESSAGE);
-                    return true;
-                } else if ("LOGIN_FAIL".equals(response.getType())) {
-                    JOptionPane.showMessageDialog(gui, response.getContent(), "登录失败", JOptionPane.WARNING_MESSAGE);
-                    // 继续循环，重新输入用户名
-                }
-            } catch (SocketTimeoutException e) {
-                JOptionPane.showMessageDialog(gui, "登录超时，请检查服务器状态", "错误", JOptionPane.ERROR_MESSAGE);
-            } catch (IOException | ClassNotFoundException e) {
-                JOptionPane.showMessageDialog(gui, "登录过程出现错误: " + e.getMessage(), "错误", JOptionPane.ERROR_MESSAGE);
-                return false;
-            }
+    private void loginFinished(Throwable error) {
+        if (error == null) {
+            System.out.println("登录成功，开始接收消息");
+            JOptionPane.showMessageDialog(gui, "登录成功！", "提示", JOptionPane.INFORMATION_MESSAGE);
+            return;
         }
-        return false;
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof TimeoutException) {
+            JOptionPane.showMessageDialog(gui, "登录超时，请检查服务器状态", "错误", JOptionPane.ERROR_MESSAGE);
+        } else if (connection.isConnected()) {
+            // 用户名被拒绝，重新输入用户名
+            JOptionPane.showMessageDialog(gui, cause.getMessage(), "登录失败", JOptionPane.WARNING_MESSAGE);
+        } else {
+            JOptionPane.showMessageDialog(gui, "登录过程出现错误: " + cause.getMessage(), "错误", JOptionPane.ERROR_MESSAGE);
+            disconnect();
+            return;
+        }
+        performLogin();
     }
     
-    private void sendLoginMessage() {
-        try {
-            Message loginMsg = new Message("LOGIN", username, "");
-            output.writeObject(loginMsg);
-            output.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+    public void sendMessage(String room, String content) {
+        if (!isConnected()) {
+            JOptionPane.showMessageDialog(gui, "连接已断开，无法发送消息", "错误", JOptionPane.ERROR_MESSAGE);
+            return;
         }
+        
+        reportFailure(connection.sendChat(room, content), "发送消息失败");
     }
     
-    public void sendMessage(String content) {
-        if (!connected || socket.isClosed()) {
+    // 私聊只发给指定用户，服务器送达后回复 PRIVATE_ACK
+    public void sendPrivate(String recipient, String content) {
+        if (!isConnected()) {
             JOptionPane.showMessageDialog(gui, "连接已断开，无法发送消息", "错误", JOptionPane.ERROR_MESSAGE);
             return;
         }
         
+        reportFailure(connection.sendPrivate(recipient, content), "发送私聊失败");
+    }
+    
+    // 在服务器上搜索聊天记录，结果以 SEARCH_HIT 逐条返回
+    public void search(SearchQuery query) {
+        reportFailure(connection.search(query), "发送请求失败");
+    }
+    
+    // 向指定用户发送文件
+    public void sendFile(String recipient, File file) {
         try {
-            Message chatMsg = new Message("CHAT", username, content);
-            output.writeObject(chatMsg);
-            output.flush();
+            fileTransfers.offer(recipient, file);
         } catch (IOException e) {
             e.printStackTrace();
-            JOptionPane.showMessageDialog(gui, "发送消息失败", "错误", JOptionPane.ERROR_MESSAGE);
+            JOptionPane.showMessageDialog(gui, "发送文件失败", "错误", JOptionPane.ERROR_MESSAGE);
         }
     }
     
+    public FileTransfers getFileTransfers() {
+        return fileTransfers;
+    }
+    
     public void disconnect() {
         connected = false;
-        try {
-            if (output != null) {
-                Message logoutMsg = new Message("LOGOUT", username, "");
-                output.writeObject(logoutMsg);
-                output.flush();
-            }
+        if (fileTransfers != null) {
+            fileTransfers.closeAll();
+        }
+        if (connection != null) {
             if (receiver != null) {
-                receiver.stop();
+                connection.removeListener(receiver);
             }
-            if (socket != null) socket.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+            // 下线消息写出后关闭，最多等1秒；不在调用线程上等待
+            ChatConnection closing = connection;
+            closing.logout().orTimeout(1, TimeUnit.SECONDS).whenComplete((ignored, error) -> {
+                closing.close();
+                System.out.println("帧压缩：" + CompressedCodec.stats());
+            });
+        }
+    }
+    
+    public void joinRoom(String room) {
+        reportFailure(connection.joinRoom(room), "发送请求失败");
+    }
+    
+    public void leaveRoom(String room) {
+        reportFailure(connection.leaveRoom(room), "发送请求失败");
+    }
+    
+    // 花名册版本不连续时请求服务器重新发送快照
+    public void requestRosterSync() {
+        connection.send(new Message("ROSTER_SYNC", username, ""));
+    }
+    
+    // 向上翻到顶时补发更早的房间消息
+    public void requestHistory(String room, long beforeSeq) {
+        reportFailure(connection.history(room, beforeSeq), "获取历史消息失败");
+    }
+    
+    // 发送不等待写出，失败时在界面线程上提示
+    private void reportFailure(CompletableFuture<Void> future, String text) {
+        future.whenComplete((ignored, error) -> {
+            if (error != null && connected) {
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(gui, text, "错误", JOptionPane.ERROR_MESSAGE));
+            }
+        });
+    }
+    
+    // 文件传输使用：消息已在调用线程上编码，之后可以复用其中的数据缓冲区
+    void send(Message message) throws IOException {
+        if (!isConnected()) {
+            throw new IOException("连接已断开");
         }
+        connection.send(message);
+    }
+    
+    public String getUsername() {
+        return username;
     }
     
     public void setUsername(String username) {
@@ -140,7 +201,7 @@ public class ChatClient {
     }
     
     public boolean isConnected() {
-        return connected && socket != null && !socket.isClosed();
+        return connected && connection != null && connection.isConnected();
     }
     
     public static void main(String[] args) {
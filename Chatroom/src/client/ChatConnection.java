@@ -0,0 +1,319 @@
+package client;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import common.Codec;
+import common.FrameCodec;
+import common.Handshake;
+import common.Message;
+import common.SearchQuery;
+
+/**
+ * 不依赖界面的客户端连接，图形客户端、机器人和其它集成都可以复用
+ * 所有操作都是异步的，返回 CompletableFuture；收到的消息在接收线程上交给监听器
+ * 发送在调用线程上编码后入队，由发送线程批量写出，队列取空时才刷新一次，
+ * 调用方不需要等待上一条消息写出就可以继续发送
+ */
+public class ChatConnection implements Closeable {
+    // 发送队列容量，可通过 -Dchat.client.sendQueue 配置；队列满时 send 阻塞调用方
+    static final int SEND_QUEUE_CAPACITY = Integer.getInteger("chat.client.sendQueue", 4096);
+    private static final long LOGIN_TIMEOUT_MILLIS = 5000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 消息监听器，在接收线程上调用，不应长时间阻塞
+     */
+    public interface Listener {
+        void onMessage(Message message);
+
+        /**
+         * 连接断开；cause 为 null 表示本地主动关闭
+         */
+        default void onClosed(IOException cause) {
+        }
+    }
+
+    // 已编码、等待写出的帧
+    private static class Pending {
+        final ByteBuffer frame;
+        final CompletableFuture<Void> future;
+
+        Pending(ByteBuffer frame, CompletableFuture<Void> future) {
+            this.frame = frame;
+            this.future = future;
+        }
+    }
+
+    private final Socket socket;
+    private final DataInputStream input;
+    private final OutputStream output;
+    private final Codec codec;
+    private final BlockingQueue<Pending> queue = new ArrayBlockingQueue<>(SEND_QUEUE_CAPACITY);
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private volatile CompletableFuture<Void> pendingLogin;
+    private volatile String username;
+
+    private ChatConnection(Socket socket, DataInputStream input, OutputStream output, Codec codec) {
+        this.socket = socket;
+        this.input = input;
+        this.output = output;
+        this.codec = codec;
+    }
+
+    /**
+     * 连接服务器并完成版本握手，使用 Handshake.preferredCodec() 选择的编解码器
+     */
+    public static CompletableFuture<ChatConnection> connect(String host, int port) {
+        CompletableFuture<ChatConnection> future = new CompletableFuture<>();
+        start("chat-connect-" + host + ":" + port, () -> {
+            Socket socket = null;
+            try {
+                socket = new Socket(host, port);
+                socket.setTcpNoDelay(true);
+                DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+                socket.setSoTimeout((int) LOGIN_TIMEOUT_MILLIS);
+                Codec codec = Handshake.connect(input, output, Handshake.preferredCodec());
+                socket.setSoTimeout(0);
+                ChatConnection connection = new ChatConnection(socket, input, output, codec);
+                start("chat-receiver", connection::receiveLoop);
+                start("chat-sender", connection::sendLoop);
+                future.complete(connection);
+            } catch (IOException e) {
+                closeQuietly(socket);
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 登录；服务器拒绝时以 IOException 结束，消息为拒绝原因，之后可以换用户名重试
+     */
+    public synchronized CompletableFuture<Void> login(String username) {
+        CompletableFuture<Void> previous = pendingLogin;
+        if (previous != null && !previous.isDone()) {
+            return CompletableFuture.failedFuture(new IOException("上一次登录尚未完成"));
+        }
+        CompletableFuture<Void> login = new CompletableFuture<>();
+        pendingLogin = login;
+        this.username = username;
+        send(new Message("LOGIN", username, "")).whenComplete((ignored, error) -> {
+            if (error != null) {
+                login.completeExceptionally(error);
+            }
+        });
+        return login.orTimeout(LOGIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 发送一条消息，写入套接字后结束；连接已关闭时以 IOException 结束
+     * 消息在调用线程上编码，返回后修改消息或其中的数据不影响发送
+     */
+    public CompletableFuture<Void> send(Message message) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (closed.get()) {
+            future.completeExceptionally(new IOException("连接已关闭"));
+            return future;
+        }
+        try {
+            queue.put(new Pending(codec.encode(message), future));
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(new IOException("发送被中断", e));
+        }
+        if (closed.get()) {
+            failPending(); // 入队时连接恰好关闭
+        }
+        return future;
+    }
+
+    public CompletableFuture<Void> sendChat(String room, String content) {
+        Message message = new Message("CHAT", username, content);
+        message.setTarget(room);
+        return send(message);
+    }
+
+    public CompletableFuture<Void> sendPrivate(String recipient, String content) {
+        Message message = new Message("PRIVATE", username, content);
+        message.setTarget(recipient);
+        return send(message);
+    }
+
+    public CompletableFuture<Void> joinRoom(String room) {
+        return sendRoomRequest("JOIN_ROOM", room);
+    }
+
+    public CompletableFuture<Void> leaveRoom(String room) {
+        return sendRoomRequest("LEAVE_ROOM", room);
+    }
+
+    private CompletableFuture<Void> sendRoomRequest(String type, String room) {
+        Message request = new Message(type, username, "");
+        request.setTarget(room);
+        return send(request);
+    }
+
+    /**
+     * 搜索聊天记录，结果以 SEARCH_HIT 逐条、SEARCH_RESULT 汇总交给监听器
+     */
+    public CompletableFuture<Void> search(SearchQuery query) {
+        return send(new Message("SEARCH", username, query.encode()));
+    }
+
+    /**
+     * 请求房间内序号小于 beforeSeq 的更早消息（0 表示最新的），
+     * 结果以 HISTORY 逐条、HISTORY_END 收尾交给监听器
+     */
+    public CompletableFuture<Void> history(String room, long beforeSeq) {
+        Message request = new Message("HISTORY", username, "");
+        request.setTarget(room);
+        request.setSeq(beforeSeq);
+        return send(request);
+    }
+
+    /**
+     * 发送下线消息，写出后关闭连接
+     */
+    public CompletableFuture<Void> logout() {
+        return send(new Message("LOGOUT", username, "")).whenComplete((ignored, error) -> close());
+    }
+
+    // 发送线程：取出队列中已有的全部帧一起写出，最后刷新一次
+    private void sendLoop() {
+        List<Pending> batch = new ArrayList<>();
+        try {
+            while (!closed.get()) {
+                Pending first = queue.poll(LOGIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch);
+                for (Pending pending : batch) {
+                    ByteBuffer frame = pending.frame;
+                    output.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+                }
+                output.flush();
+                for (Pending pending : batch) {
+                    pending.future.complete(null);
+                }
+                batch.clear();
+            }
+        } catch (IOException e) {
+            for (Pending pending : batch) {
+                pending.future.completeExceptionally(e);
+            }
+            closeWith(e);
+        } catch (InterruptedException e) {
+            closeWith(new IOException("发送线程被中断", e));
+        }
+    }
+
+    private void receiveLoop() {
+        try {
+            while (!closed.get()) {
+                Message message = FrameCodec.readFrame(input, codec);
+                if ("PING".equals(message.getType())) {
+                    send(new Message("PONG", username, "")); // 服务器心跳，不交给监听器
+                    continue;
+                }
+                CompletableFuture<Void> login = pendingLogin;
+                if ("LOGIN_SUCCESS".equals(message.getType()) && login != null) {
+                    login.complete(null);
+                } else if ("LOGIN_FAIL".equals(message.getType()) && login != null) {
+                    login.completeExceptionally(new IOException(message.getContent()));
+                }
+                for (Listener listener : listeners) {
+                    try {
+                        listener.onMessage(message);
+                    } catch (RuntimeException e) {
+                        // 一个监听器出错不影响其它监听器和后续消息
+                        e.printStackTrace();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            closeWith(e);
+        }
+    }
+
+    /**
+     * 立即关闭连接，未写出的消息以失败结束
+     */
+    public void close() {
+        closeWith(null);
+    }
+
+    private void closeWith(IOException cause) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        closeQuietly(socket);
+        failPending();
+        CompletableFuture<Void> login = pendingLogin;
+        if (login != null) {
+            login.completeExceptionally(cause != null ? cause : new IOException("连接已关闭"));
+        }
+        for (Listener listener : listeners) {
+            listener.onClosed(cause);
+        }
+    }
+
+    private void failPending() {
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            pending.future.completeExceptionally(new IOException("连接已关闭"));
+        }
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public boolean isConnected() {
+        return !closed.get();
+    }
+
+    private static void start(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // 忽略关闭时的异常
+        }
+    }
+}
\ No newline at end of file
@@ -3,15 +3,44 @@ package client;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import common.Message;
+import common.SearchQuery;
 
 public class ClientGUI extends JFrame {
     private ChatClient client;
-    private JTextArea chatArea;
+    private JList<Message> transcript;
+    private TranscriptModel transcriptModel;
+    private JScrollPane transcriptScroll;
+    // 接收线程放入、事件分发线程成批取出的消息
+    private final Queue<Message> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    // 正在接收的一批历史消息，收到 HISTORY_END 后一起插到开头
+    private final List<Message> historyBatch = new ArrayList<>();
+    private final Set<String> historyExhausted = new HashSet<>();
+    private boolean historyPending;
     private JTextArea inputArea;
     private JList<String> userList;
     private DefaultListModel<String> listModel;
     private JButton sendButton;
+    private JComboBox<String> roomBox;
+    private JButton joinRoomButton;
+    private JButton leaveRoomButton;
+    private JButton searchButton;
+    private JButton fileButton;
+    private JPanel transferPanel;
+    private final Map<String, JProgressBar> transferBars = new HashMap<>();
+    private final Map<String, Long> transferSizes = new HashMap<>();
+    private String lobby; // 登录时自动加入的第一个房间
     
     public ClientGUI(ChatClient client) {
         this.client = client;
@@ -30,11 +59,33 @@ public class ClientGUI extends JFrame {
         
         // 聊天区域
         JPanel chatPanel = new JPanel(new BorderLayout());
-        chatArea = new JTextArea();
-        chatArea.setEditable(false);
-        chatArea.setBackground(new Color(240, 240, 240));
-        JScrollPane chatScroll = new JScrollPane(chatArea);
-        chatPanel.add(chatScroll, BorderLayout.CENTER);
+        transcriptModel = new TranscriptModel();
+        transcript = new JList<Message>(transcriptModel) {
+            // 宽度跟随视口，不出现横向滚动条
+            public boolean getScrollableTracksViewportWidth() {
+                return true;
+            }
+        };
+        transcript.setCellRenderer(new TranscriptRenderer());
+        transcript.setBackground(new Color(240, 240, 240));
+        // 固定行高和宽度，布局时不必逐行测量，只渲染可见的几行
+        transcript.setFixedCellHeight(transcript.getFontMetrics(transcript.getFont()).getHeight() + 2);
+        transcript.setFixedCellWidth(100);
+        transcriptScroll = new JScrollPane(transcript);
+        chatPanel.add(transcriptScroll, BorderLayout.CENTER);
+        
+        // 房间选择：消息发送到当前选中的房间
+        JPanel roomPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        roomBox = new JComboBox<>();
+        joinRoomButton = new JButton("加入房间");
+        leaveRoomButton = new JButton("退出房间");
+        searchButton = new JButton("搜索记录");
+        roomPanel.add(new JLabel("当前房间:"));
+        roomPanel.add(roomBox);
+        roomPanel.add(joinRoomButton);
+        roomPanel.add(leaveRoomButton);
+        roomPanel.add(searchButton);
+        chatPanel.add(roomPanel, BorderLayout.NORTH);
         
         // 输入区域
         JPanel inputPanel = new JPanel(new BorderLayout());
@@ -42,9 +93,13 @@ public class ClientGUI extends JFrame {
         inputArea.setLineWrap(true);
         JScrollPane inputScroll = new JScrollPane(inputArea);
         sendButton = new JButton("发送");
+        fileButton = new JButton("发送文件");
+        JPanel buttonPanel = new JPanel(new GridLayout(2, 1));
+        buttonPanel.add(sendButton);
+        buttonPanel.add(fileButton);
         
         inputPanel.add(inputScroll, BorderLayout.CENTER);
-        inputPanel.add(sendButton, BorderLayout.EAST);
+        inputPanel.add(buttonPanel, BorderLayout.EAST);
         chatPanel.add(inputPanel, BorderLayout.SOUTH);
         
         // 用户列表
@@ -54,6 +109,12 @@ public class ClientGUI extends JFrame {
         userList = new JList<>(listModel);
         userPanel.add(new JScrollPane(userList), BorderLayout.CENTER);
         
+        // 文件传输进度
+        transferPanel = new JPanel();
+        transferPanel.setLayout(new BoxLayout(transferPanel, BoxLayout.Y_AXIS));
+        transferPanel.setBorder(BorderFactory.createTitledBorder("文件传输"));
+        userPanel.add(transferPanel, BorderLayout.SOUTH);
+        
         mainSplitPane.setLeftComponent(chatPanel);
         mainSplitPane.setRightComponent(userPanel);
         
@@ -65,6 +126,47 @@ public class ClientGUI extends JFrame {
     
     private void setupEventListeners() {
         sendButton.addActionListener(e -> sendMessage());
+        joinRoomButton.addActionListener(e -> {
+            String room = JOptionPane.showInputDialog(this, "请输入房间名:", "加入房间", JOptionPane.PLAIN_MESSAGE);
+            if (room != null && !room.trim().isEmpty()) {
+                client.joinRoom(room.trim());
+            }
+        });
+        leaveRoomButton.addActionListener(e -> {
+            String room = (String) roomBox.getSelectedItem();
+            if (room != null) {
+                client.leaveRoom(room);
+            }
+        });
+        
+        searchButton.addActionListener(e -> showSearchDialog());
+        
+        // 翻到最上面时按需加载更早的消息
+        JScrollBar bar = transcriptScroll.getVerticalScrollBar();
+        bar.addAdjustmentListener(e -> {
+            if (!e.getValueIsAdjusting() && e.getValue() == 0 && bar.getMaximum() > bar.getVisibleAmount()) {
+                loadOlderHistory();
+            }
+        });
+        transcriptScroll.addMouseWheelListener(e -> {
+            if (e.getWheelRotation() < 0 && bar.getValue() == 0) {
+                loadOlderHistory();
+            }
+        });
+        fileButton.addActionListener(e -> chooseFileToSend());
+        
+        // 双击在线用户发送私聊
+        userList.addMouseListener(new MouseAdapter() {
+            public void mouseClicked(MouseEvent e) {
+                String user = userList.getSelectedValue();
+                if (e.getClickCount() == 2 && user != null) {
+                    String text = JOptionPane.showInputDialog(ClientGUI.this, "发送给 " + user + ":", "私聊", JOptionPane.PLAIN_MESSAGE);
+                    if (text != null && !text.trim().isEmpty()) {
+                        client.sendPrivate(user, text.trim());
+                    }
+                }
+            }
+        });
         
         inputArea.addKeyListener(new KeyAdapter() {
             public void keyPressed(KeyEvent e) {
@@ -83,24 +185,233 @@ public class ClientGUI extends JFrame {
         });
     }
     
+    // 搜索条件：关键词、发送者、最近几天、页码
+    private void showSearchDialog() {
+        JPanel panel = new JPanel(new GridLayout(4, 2));
+        JTextField textField = new JTextField();
+        JTextField senderField = new JTextField();
+        JTextField daysField = new JTextField("7");
+        JTextField pageField = new JTextField("1");
+        panel.add(new JLabel("关键词:"));
+        panel.add(textField);
+        panel.add(new JLabel("发送者:"));
+        panel.add(senderField);
+        panel.add(new JLabel("最近天数(0为不限):"));
+        panel.add(daysField);
+        panel.add(new JLabel("页码:"));
+        panel.add(pageField);
+        if (JOptionPane.showConfirmDialog(this, panel, "搜索聊天记录", JOptionPane.OK_CANCEL_OPTION) != JOptionPane.OK_OPTION) {
+            return;
+        }
+        try {
+            long days = Long.parseLong(daysField.getText().trim());
+            int page = Integer.parseInt(pageField.getText().trim()) - 1;
+            long from = days > 0 ? System.currentTimeMillis() - days * 24 * 3600 * 1000 : 0;
+            client.search(new SearchQuery(textField.getText(), senderField.getText(), from, 0, page));
+        } catch (NumberFormatException ex) {
+            JOptionPane.showMessageDialog(this, "天数和页码必须是数字", "错误", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+    
+    // 把文件发给在线用户列表中选中的用户
+    private void chooseFileToSend() {
+        String user = userList.getSelectedValue();
+        if (user == null) {
+            JOptionPane.showMessageDialog(this, "请先在在线用户列表中选择接收者", "提示", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+            client.sendFile(user, chooser.getSelectedFile());
+        }
+    }
+    
+    /**
+     * 询问是否接收文件并选择保存位置，拒绝时返回 null；必须在事件分发线程调用
+     */
+    public File chooseDownload(String sender, String name, long size) {
+        int answer = JOptionPane.showConfirmDialog(this,
+            sender + " 想发送文件 " + name + "（" + formatSize(size) + "），是否接收？",
+            "接收文件", JOptionPane.YES_NO_OPTION);
+        if (answer != JOptionPane.YES_OPTION) {
+            return null;
+        }
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File(name));
+        return chooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION ? chooser.getSelectedFile() : null;
+    }
+    
+    public void transferStarted(String id, String label, long size) {
+        SwingUtilities.invokeLater(() -> {
+            JPanel row = new JPanel(new BorderLayout());
+            JProgressBar bar = new JProgressBar(0, 1000);
+            bar.setStringPainted(true);
+            bar.setString(label);
+            JButton cancel = new JButton("取消");
+            cancel.addActionListener(e -> client.getFileTransfers().cancel(id, "已手动取消"));
+            row.add(bar, BorderLayout.CENTER);
+            row.add(cancel, BorderLayout.EAST);
+            bar.putClientProperty("row", row);
+            bar.putClientProperty("label", label);
+            transferBars.put(id, bar);
+            transferSizes.put(id, size);
+            transferPanel.add(row);
+            transferPanel.revalidate();
+        });
+    }
+    
+    public void transferProgress(String id, long bytes) {
+        SwingUtilities.invokeLater(() -> {
+            JProgressBar bar = transferBars.get(id);
+            if (bar != null) {
+                long size = transferSizes.get(id);
+                bar.setValue(size > 0 ? (int) (bytes * 1000 / size) : 1000);
+                bar.setString(bar.getClientProperty("label") + "  " + formatSize(bytes) + "/" + formatSize(size));
+            }
+        });
+    }
+    
+    public void transferFinished(String id, String status) {
+        SwingUtilities.invokeLater(() -> {
+            JProgressBar bar = transferBars.remove(id);
+            transferSizes.remove(id);
+            if (bar != null) {
+                transferPanel.remove((Component) bar.getClientProperty("row"));
+                transferPanel.revalidate();
+                transferPanel.repaint();
+                appendMessage(new Message("SYSTEM", "系统", "[文件] " + bar.getClientProperty("label") + " " + status));
+            }
+        });
+    }
+    
+    private static String formatSize(long bytes) {
+        if (bytes < 1024) {
+            return bytes + "B";
+        } else if (bytes < 1024 * 1024) {
+            return bytes / 1024 + "KB";
+        }
+        return String.format("%.1fMB", bytes / 1048576.0);
+    }
+    
     public void disconnect(){
         client.disconnect();
     }
     private void sendMessage() {
         String message = inputArea.getText().trim();
         if (!message.isEmpty()) {
-            client.sendMessage(message);
+            client.sendMessage((String) roomBox.getSelectedItem(), message);
             inputArea.setText("");
         }
     }
     
+    /**
+     * 可在任意线程调用；消息先入队，事件分发线程每轮把队列中的消息一次加入列表
+     */
     public void appendMessage(Message message) {
+        incoming.add(message);
+        if (drainScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::drainIncoming);
+        }
+    }
+    
+    private void drainIncoming() {
+        drainScheduled.set(false);
+        List<Message> batch = new ArrayList<>();
+        Message message;
+        while ((message = incoming.poll()) != null) {
+            if ("HISTORY".equals(message.getType())) {
+                historyBatch.add(message);
+            } else if ("HISTORY_END".equals(message.getType())) {
+                historyLoaded(message.getTarget(), message.getSeq());
+            } else {
+                batch.add(message);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        JScrollBar bar = transcriptScroll.getVerticalScrollBar();
+        // 停在底部时跟随新消息，往上翻看时保持当前位置
+        boolean follow = bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - transcript.getFixedCellHeight();
+        int before = transcriptModel.getSize();
+        transcriptModel.append(batch);
+        int dropped = before + Math.min(batch.size(), transcriptModel.getCapacity()) - transcriptModel.getSize();
+        if (follow) {
+            transcript.ensureIndexIsVisible(transcriptModel.getSize() - 1);
+        } else if (dropped > 0) {
+            bar.setValue(bar.getValue() - dropped * transcript.getFixedCellHeight());
+        }
+    }
+    
+    // 请求当前房间里比列表中最老消息更早的记录；列表已满时不再加载
+    private void loadOlderHistory() {
+        String room = (String) roomBox.getSelectedItem();
+        if (room == null || historyPending || historyExhausted.contains(room)
+                || transcriptModel.getSize() >= transcriptModel.getCapacity()) {
+            return;
+        }
+        historyPending = true;
+        client.requestHistory(room, transcriptModel.getOldestLoggedSeq(room, lobby));
+    }
+    
+    // 一批历史消息接收完毕，插到列表开头，并保持用户正在看的那一行不动
+    private void historyLoaded(String room, long count) {
+        historyPending = false;
+        if (count == 0) {
+            historyExhausted.add(room);
+        }
+        JScrollBar bar = transcriptScroll.getVerticalScrollBar();
+        int value = bar.getValue();
+        int added = transcriptModel.prepend(historyBatch);
+        historyBatch.clear();
+        if (added > 0) {
+            transcriptScroll.validate();
+            bar.setValue(value + added * transcript.getFixedCellHeight());
+        }
+    }
+    
+    // 显示用的一行文字，行可见时才由渲染器生成
+    private String format(Message message) {
+        String prefix;
+        if ("SEARCH_HIT".equals(message.getType())) {
+            prefix = "[搜索 #" + message.getTarget() + "] ";
+        } else if ("SEARCH_RESULT".equals(message.getType())) {
+            prefix = "[搜索] ";
+        } else if ("PRIVATE".equals(message.getType())) {
+            prefix = "[私聊] ";
+        } else if ("PRIVATE_ACK".equals(message.getType())) {
+            prefix = "[私聊→" + message.getTarget() + "] ";
+        } else {
+            String room = message.getTarget();
+            prefix = room != null && !room.equals(lobby) ? "#" + room + " " : "";
+        }
+        return prefix + message.toString();
+    }
+    
+    private class TranscriptRenderer extends DefaultListCellRenderer {
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean selected, boolean focused) {
+            String text = format((Message) value);
+            super.getListCellRendererComponent(list, text.replace('\n', ' '), index, selected, focused);
+            // 放不下或有换行的消息用提示显示全文
+            setToolTipText(text.length() > 40 || text.indexOf('\n') >= 0 ? text : null);
+            return this;
+        }
+    }
+    
+    public void roomJoined(String room) {
         SwingUtilities.invokeLater(() -> {
-            chatArea.append(message.toString() + "\n");
-            chatArea.setCaretPosition(chatArea.getDocument().getLength());
+            if (lobby == null) {
+                lobby = room;
+            }
+            roomBox.addItem(room);
+            roomBox.setSelectedItem(room);
         });
     }
     
+    public void roomLeft(String room) {
+        SwingUtilities.invokeLater(() -> roomBox.removeItem(room));
+    }
+    
     public void updateUserList(String[] users) {
         SwingUtilities.invokeLater(() -> {
             listModel.clear();
@@ -112,6 +423,24 @@ public class ClientGUI extends JFrame {
         });
     }
     
+    public void addUsers(String[] users) {
+        SwingUtilities.invokeLater(() -> {
+            for (String user : users) {
+                if (!user.isEmpty() && !listModel.contains(user)) {
+                    listModel.addElement(user);
+                }
+            }
+        });
+    }
+    
+    public void removeUsers(String[] users) {
+        SwingUtilities.invokeLater(() -> {
+            for (String user : users) {
+                listModel.removeElement(user);
+            }
+        });
+    }
+    
     public void showLoginDialog() {
         String username = JOptionPane.showInputDialog(this, 
             "请输入用户名:", "登录", JOptionPane.PLAIN_MESSAGE);
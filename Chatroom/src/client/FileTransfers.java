@@ -0,0 +1,343 @@
+package client;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.swing.SwingUtilities;
+
+import common.Message;
+
+/**
+ * 文件传输：发送方按块读取文件，接收方按偏移写入 .part 文件，支持断点续传
+ * 所有消息的内容第一行是传输编号；块的偏移放在 seq，数据放在 data
+ * 发送方最多有 WINDOW 个未确认的块在途，整个文件从不完整读入内存
+ * 续传时用 .part.info 记录的来源（发送者、文件名、大小、修改时间）确认 .part 文件属于同一个文件，不符时重新接收
+ */
+public class FileTransfers {
+    static final int CHUNK_SIZE = 64 * 1024;
+    static final int WINDOW = 8;
+    private static final long ACK_TIMEOUT_MILLIS = 30000;
+
+    private final ChatClient client;
+    private final ClientGUI gui;
+    private final Map<String, Outgoing> outgoing = new ConcurrentHashMap<>();
+    private final Map<String, Incoming> incoming = new ConcurrentHashMap<>();
+
+    // 发送中的文件
+    private static class Outgoing {
+        final String id;
+        final String recipient;
+        final File file;
+        final long size;
+        final long modified;
+        long acked;
+        boolean cancelled;
+
+        Outgoing(String id, String recipient, File file) {
+            this.id = id;
+            this.recipient = recipient;
+            this.file = file;
+            this.size = file.length();
+            this.modified = file.lastModified();
+        }
+    }
+
+    // 接收中的文件
+    static class Incoming {
+        final String id;
+        final String sender;
+        final long size;
+        final File part;
+        final File info;
+        final File target;
+        final List<String> source; // 发送者、文件名、大小、修改时间
+        FileChannel channel;
+        long received;
+
+        Incoming(String id, String sender, String name, long size, long modified, File target) {
+            this.id = id;
+            this.sender = sender;
+            this.size = size;
+            this.target = target;
+            this.part = new File(target.getPath() + ".part");
+            this.info = new File(target.getPath() + ".part.info");
+            this.source = List.of(sender, name, Long.toString(size), Long.toString(modified));
+        }
+    }
+
+    public FileTransfers(ChatClient client, ClientGUI gui) {
+        this.client = client;
+        this.gui = gui;
+    }
+
+    /**
+     * 向指定用户发起文件传输，对方接受后开始发送
+     */
+    public void offer(String recipient, File file) throws IOException {
+        Outgoing transfer = new Outgoing(UUID.randomUUID().toString(), recipient, file);
+        outgoing.put(transfer.id, transfer);
+        gui.transferStarted(transfer.id, "发送 " + file.getName() + " → " + recipient, transfer.size);
+        send("FILE_OFFER", recipient, transfer.id + "\n" + file.getName() + "\n" + transfer.size + "\n" + transfer.modified, 0, null);
+    }
+
+    /**
+     * 处理服务器转来的文件传输消息
+     */
+    public void handle(Message message) {
+        String content = message.getContent() != null ? message.getContent() : "";
+        String[] lines = content.split("\n", -1);
+        String id = lines[0];
+        try {
+            switch (message.getType()) {
+                case "FILE_OFFER":
+                    onOffer(id, message.getSender(), lines.length > 1 ? lines[1] : id,
+                        lines.length > 2 ? Long.parseLong(lines[2]) : 0, lines.length > 3 ? Long.parseLong(lines[3]) : 0);
+                    break;
+                case "FILE_ACCEPT":
+                    onAccept(id, message.getSeq());
+                    break;
+                case "FILE_CHUNK":
+                    onChunk(id, message.getSeq(), message.getData());
+                    break;
+                case "FILE_ACK":
+                    onAck(id, message.getSeq());
+                    break;
+                case "FILE_CANCEL":
+                    finish(id, "已取消：" + (lines.length > 1 ? lines[1] : "对方取消"));
+                    break;
+            }
+        } catch (IOException | NumberFormatException e) {
+            cancel(id, "传输出错：" + e.getMessage());
+        }
+    }
+
+    // ===== 发送方 =====
+
+    private void onAccept(String id, long offset) {
+        Outgoing transfer = outgoing.get(id);
+        if (transfer == null) {
+            return;
+        }
+        synchronized (transfer) {
+            transfer.acked = offset;
+        }
+        gui.transferProgress(id, offset);
+        Thread thread = new Thread(() -> stream(transfer, offset), "file-send-" + transfer.file.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // 从 offset 起逐块读取发送，在途数据超过窗口时等待确认
+    private void stream(Outgoing transfer, long offset) {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(chunk);
+        try (FileChannel channel = FileChannel.open(transfer.file.toPath(), StandardOpenOption.READ)) {
+            long position = offset;
+            while (position < transfer.size) {
+                if (!awaitWindow(transfer, position)) {
+                    return;
+                }
+                buffer.clear();
+                int length = (int) Math.min(CHUNK_SIZE, transfer.size - position);
+                buffer.limit(length);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0) {
+                        throw new EOFException("文件在发送过程中被截短");
+                    }
+                }
+                // 发送是同步编码的，块缓冲区可以重复使用
+                send("FILE_CHUNK", transfer.recipient, transfer.id, position,
+                    length == CHUNK_SIZE ? chunk : Arrays.copyOf(chunk, length));
+                position += length;
+            }
+        } catch (IOException e) {
+            cancel(transfer.id, "读取文件失败：" + e.getMessage());
+        }
+    }
+
+    private boolean awaitWindow(Outgoing transfer, long position) {
+        long deadline = System.currentTimeMillis() + ACK_TIMEOUT_MILLIS;
+        synchronized (transfer) {
+            while (!transfer.cancelled && position - transfer.acked >= (long) WINDOW * CHUNK_SIZE) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    break;
+                }
+                try {
+                    transfer.wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            if (transfer.cancelled) {
+                return false;
+            }
+            if (position - transfer.acked >= (long) WINDOW * CHUNK_SIZE) {
+                cancel(transfer.id, "对方长时间无响应");
+                return false;
+            }
+            return true;
+        }
+    }
+
+    private void onAck(String id, long received) {
+        Outgoing transfer = outgoing.get(id);
+        if (transfer == null) {
+            return;
+        }
+        synchronized (transfer) {
+            transfer.acked = received;
+            transfer.notifyAll();
+        }
+        gui.transferProgress(id, received);
+        if (received >= transfer.size) {
+            finish(id, "发送完成");
+        }
+    }
+
+    // ===== 接收方 =====
+
+    private void onOffer(String id, String sender, String name, long size, long modified) {
+        SwingUtilities.invokeLater(() -> {
+            File target = gui.chooseDownload(sender, name, size);
+            if (target == null) {
+                try {
+                    send("FILE_CANCEL", sender, id + "\n对方拒绝接收", 0, null);
+                } catch (IOException e) {
+                    // 连接已断开
+                }
+                return;
+            }
+            try {
+                accept(new Incoming(id, sender, name, size, modified, target), name);
+            } catch (IOException e) {
+                cancel(id, "无法写入文件：" + e.getMessage());
+            }
+        });
+    }
+
+    // 已有同一文件的 .part 时从其末尾续传，其它来源的 .part 丢弃重收
+    private void accept(Incoming transfer, String name) throws IOException {
+        long offset = resumeOffset(transfer);
+        Files.write(transfer.info.toPath(), transfer.source, StandardCharsets.UTF_8);
+        transfer.channel = FileChannel.open(transfer.part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        transfer.received = offset;
+        incoming.put(transfer.id, transfer);
+        gui.transferStarted(transfer.id, "接收 " + name + " ← " + transfer.sender, transfer.size);
+        gui.transferProgress(transfer.id, offset);
+        send("FILE_ACCEPT", transfer.sender, transfer.id, offset, null);
+        if (offset >= transfer.size) {
+            complete(transfer);
+        }
+    }
+
+    /**
+     * 可续传的位置：.part 与 .part.info 都存在且来源一致时为已接收的长度，否则删除旧文件从头开始
+     */
+    static long resumeOffset(Incoming transfer) throws IOException {
+        if (transfer.part.exists() && transfer.info.exists()
+                && Files.readAllLines(transfer.info.toPath(), StandardCharsets.UTF_8).equals(transfer.source)) {
+            return Math.min(transfer.part.length(), transfer.size);
+        }
+        Files.deleteIfExists(transfer.part.toPath());
+        Files.deleteIfExists(transfer.info.toPath());
+        return 0;
+    }
+
+    private void onChunk(String id, long offset, byte[] data) throws IOException {
+        Incoming transfer = incoming.get(id);
+        if (transfer == null || data == null) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            transfer.channel.write(buffer, offset + buffer.position());
+        }
+        transfer.received = offset + data.length;
+        send("FILE_ACK", transfer.sender, id, transfer.received, null);
+        gui.transferProgress(id, transfer.received);
+        if (transfer.received >= transfer.size) {
+            complete(transfer);
+        }
+    }
+
+    private void complete(Incoming transfer) throws IOException {
+        if (transfer.received == 0) {
+            send("FILE_ACK", transfer.sender, transfer.id, transfer.size, null); // 空文件
+        }
+        transfer.channel.close();
+        Files.move(transfer.part.toPath(), transfer.target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(transfer.info.toPath());
+        finish(transfer.id, "接收完成：" + transfer.target.getPath());
+    }
+
+    // ===== 公共 =====
+
+    /**
+     * 取消传输并通知对方
+     */
+    public void cancel(String id, String reason) {
+        Outgoing out = outgoing.get(id);
+        Incoming in = incoming.get(id);
+        String peer = out != null ? out.recipient : in != null ? in.sender : null;
+        if (peer != null) {
+            try {
+                send("FILE_CANCEL", peer, id + "\n" + reason, 0, null);
+            } catch (IOException e) {
+                // 连接已断开
+            }
+        }
+        finish(id, "已取消：" + reason);
+    }
+
+    // 结束传输，释放资源；未完成的 .part 文件保留用于续传
+    private void finish(String id, String status) {
+        Outgoing out = outgoing.remove(id);
+        if (out != null) {
+            synchronized (out) {
+                out.cancelled = true;
+                out.notifyAll();
+            }
+        }
+        Incoming in = incoming.remove(id);
+        if (in != null && in.channel != null) {
+            try {
+                in.channel.close();
+            } catch (IOException e) {
+                // 忽略关闭时的异常
+            }
+        }
+        gui.transferFinished(id, status);
+    }
+
+    /**
+     * 断开连接时结束所有传输
+     */
+    public void closeAll() {
+        for (String id : outgoing.keySet()) {
+            finish(id, "连接已断开");
+        }
+        for (String id : incoming.keySet()) {
+            finish(id, "连接已断开");
+        }
+    }
+
+    private void send(String type, String peer, String content, long seq, byte[] data) throws IOException {
+        Message message = new Message(type, client.getUsername(), content);
+        message.setTarget(peer);
+        message.setSeq(seq);
+        message.setData(data);
+        client.send(message);
+    }
+}
\ No newline at end of file
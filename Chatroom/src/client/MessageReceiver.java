@@ -3,29 +3,28 @@ package client;
 import java.io.*;
 import common.Message;
 
-public class MessageReceiver implements Runnable {
-    private ObjectInputStream input;
+/**
+ * 把服务器消息分发给界面、花名册和文件传输
+ */
+public class MessageReceiver implements ChatConnection.Listener {
     private ClientGUI gui;
-    private boolean running;
+    private ChatClient client;
+    private Roster roster = new Roster();
     
-    public MessageReceiver(ObjectInputStream input, ClientGUI gui) {
-        this.input = input;
+    public MessageReceiver(ClientGUI gui, ChatClient client) {
         this.gui = gui;
-        this.running = true;
+        this.client = client;
     }
     
-    public void run() {
-        try {
-            while (running) {
-                Message message = (Message) input.readObject();
-                handleMessage(message);
-            }
-        } catch (EOFException e) {
+    public void onMessage(Message message) {
+        handleMessage(message);
+    }
+    
+    public void onClosed(IOException cause) {
+        if (cause instanceof EOFException) {
             System.out.println("服务器连接已关闭");
-        } catch (IOException | ClassNotFoundException e) {
-            if (running) {
-                e.printStackTrace();
-            }
+        } else if (cause != null) {
+            cause.printStackTrace();
         }
     }
     
@@ -39,6 +38,35 @@ public class MessageReceiver implements Runnable {
                 String[] users = message.getContent().split(",");
                 gui.updateUserList(users);
                 break;
+            case "ROSTER_SNAPSHOT":
+                roster.reset(message.getContent().split(","), message.getSeq());
+                gui.updateUserList(roster.getUsers());
+                break;
+            case "USER_JOINED":
+            case "USER_LEFT":
+                applyRosterDelta(message);
+                break;
+            case "PRIVATE":
+            case "PRIVATE_ACK":
+            case "SEARCH_HIT":
+            case "SEARCH_RESULT":
+            case "HISTORY":
+            case "HISTORY_END":
+                gui.appendMessage(message);
+                break;
+            case "FILE_OFFER":
+            case "FILE_ACCEPT":
+            case "FILE_CHUNK":
+            case "FILE_ACK":
+            case "FILE_CANCEL":
+                client.getFileTransfers().handle(message);
+                break;
+            case "JOIN_ROOM":
+                gui.roomJoined(message.getTarget());
+                break;
+            case "LEAVE_ROOM":
+                gui.roomLeft(message.getTarget());
+                break;
             case "LOGIN_SUCCESS":
                 // 登录成功，不需要特殊处理，已经在ChatClient中处理了
                 break;
@@ -51,14 +79,23 @@ public class MessageReceiver implements Runnable {
         }
     }
     
-    public void stop() {
-        running = false;
-        try {
-            if (input != null) {
-                input.close();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    private void applyRosterDelta(Message message) {
+        boolean joined = "USER_JOINED".equals(message.getType());
+        String[] names = message.getContent().split(",");
+        switch (roster.apply(joined, names, message.getSeq())) {
+            case APPLIED:
+                if (joined) {
+                    gui.addUsers(names);
+                } else {
+                    gui.removeUsers(names);
+                }
+                break;
+            case GAP:
+                // 版本不连续，丢失了增量，重新请求快照
+                client.requestRosterSync();
+                break;
+            default:
+                break; // 已包含在快照中，界面不变
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,61 @@
+package client;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * 客户端本地花名册：一次快照 + 带版本号的增量
+ * 增量版本号不连续时说明有遗漏，需要向服务器重新请求快照
+ */
+public class Roster {
+    /**
+     * 增量的处理结果：已应用、已包含在快照中而忽略、版本不连续
+     */
+    public enum Result { APPLIED, IGNORED, GAP }
+
+    private final Set<String> users = new LinkedHashSet<>();
+    private long version = -1; // 尚未收到快照
+
+    /**
+     * 用快照替换全部内容
+     */
+    public synchronized void reset(String[] names, long version) {
+        users.clear();
+        for (String name : names) {
+            if (!name.isEmpty()) {
+                users.add(name);
+            }
+        }
+        this.version = version;
+    }
+
+    /**
+     * 应用一条增量
+     * @return 只有 APPLIED 时花名册发生了变化；GAP 表示增量未应用，需要重新同步
+     */
+    public synchronized Result apply(boolean joined, String[] names, long version) {
+        if (this.version < 0 || version <= this.version) {
+            return Result.IGNORED; // 快照之前或重复的增量，已包含在快照中
+        }
+        if (version != this.version + 1) {
+            return Result.GAP;
+        }
+        for (String name : names) {
+            if (joined) {
+                users.add(name);
+            } else {
+                users.remove(name);
+            }
+        }
+        this.version = version;
+        return Result.APPLIED;
+    }
+
+    public synchronized String[] getUsers() {
+        return users.toArray(new String[0]);
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+}
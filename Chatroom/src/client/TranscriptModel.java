@@ -0,0 +1,102 @@
+package client;
+
+import java.util.List;
+
+import javax.swing.AbstractListModel;
+
+import common.Message;
+
+/**
+ * 聊天记录列表的数据：固定容量的环形缓冲，超出容量时丢弃最老的消息
+ * 只保存消息本身，显示的文字由渲染器在行可见时才生成；只能在事件分发线程上修改
+ */
+public class TranscriptModel extends AbstractListModel<Message> {
+    // 保留的消息条数，可通过 -Dchat.client.transcript 配置
+    static final int CAPACITY = Math.max(Integer.getInteger("chat.client.transcript", 5000), 16);
+
+    private final Message[] ring;
+    private int head; // 最老一条所在的位置
+    private int size;
+
+    public TranscriptModel() {
+        this(CAPACITY);
+    }
+
+    public TranscriptModel(int capacity) {
+        ring = new Message[capacity];
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public Message getElementAt(int index) {
+        return ring[(head + index) % ring.length];
+    }
+
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    /**
+     * 在末尾追加一批消息，先丢弃放不下的最老消息，各发一次通知
+     */
+    public void append(List<Message> batch) {
+        int count = Math.min(batch.size(), ring.length);
+        if (count == 0) {
+            return;
+        }
+        int overflow = size + count - ring.length;
+        if (overflow > 0) {
+            for (int i = 0; i < overflow; i++) {
+                ring[(head + i) % ring.length] = null;
+            }
+            head = (head + overflow) % ring.length;
+            size -= overflow;
+            fireIntervalRemoved(this, 0, overflow - 1);
+        }
+        int first = size;
+        for (Message message : batch.subList(batch.size() - count, batch.size())) {
+            ring[(head + size) % ring.length] = message;
+            size++;
+        }
+        fireIntervalAdded(this, first, size - 1);
+    }
+
+    /**
+     * 在开头插入更早的消息（按时间升序），只用空余容量，不挤掉已有消息
+     * @return 实际插入的条数
+     */
+    public int prepend(List<Message> older) {
+        int count = Math.min(older.size(), ring.length - size);
+        if (count == 0) {
+            return 0;
+        }
+        head = (head - count + ring.length) % ring.length;
+        List<Message> kept = older.subList(older.size() - count, older.size());
+        for (int i = 0; i < count; i++) {
+            ring[(head + i) % ring.length] = kept.get(i);
+        }
+        size += count;
+        fireIntervalAdded(this, 0, count - 1);
+        return count;
+    }
+
+    /**
+     * 某个房间里最老一条带聊天记录序号的消息的序号，用作补发该房间历史的起点；没有时返回 0
+     * 各房间的消息交错保存在同一个列表里，必须按房间分别找，否则会从别的房间的位置开始翻页
+     * @param lobby 未指定房间的消息所属的房间
+     */
+    public long getOldestLoggedSeq(String room, String lobby) {
+        for (int i = 0; i < size; i++) {
+            Message message = getElementAt(i);
+            String type = message.getType();
+            String target = message.getTarget() != null ? message.getTarget() : lobby;
+            if (message.getSeq() > 0 && room.equals(target)
+                    && ("CHAT".equals(type) || "HISTORY".equals(type) || "SYSTEM".equals(type))) {
+                return message.getSeq();
+            }
+        }
+        return 0;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,183 @@
+package common;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 紧凑二进制编解码
+ * 帧负载 = 类型码(1字节) [类型名] + 时间(varint) + 发送者 + 内容 [+ 扩展标志(1字节) + 扩展字段]
+ * 字符串 = 长度+1(varint，0表示null) + UTF-8字节；二进制数据 = 长度(varint) + 字节
+ * 扩展字段按标志位顺序排列，全部缺省时整个扩展段省略
+ */
+public class BinaryCodec implements Codec {
+    public static final byte ID = 2;
+    public static final BinaryCodec INSTANCE = new BinaryCodec();
+
+    private static final int HAS_SEQ = 1;
+    private static final int HAS_TARGET = 2;
+    private static final int HAS_DATA = 4;
+
+    public byte id() {
+        return ID;
+    }
+
+    public ByteBuffer encode(Message message) throws IOException {
+        byte code = MessageType.code(message.getType());
+        byte[] type = code == MessageType.UNKNOWN ? utf8(message.getType()) : null;
+        byte[] sender = utf8(message.getSender());
+        byte[] content = utf8(message.getContent());
+
+        byte[] target = utf8(message.getTarget());
+        byte[] data = message.getData();
+        int flags = (message.getSeq() != 0 ? HAS_SEQ : 0) | (target != null ? HAS_TARGET : 0)
+            | (data != null ? HAS_DATA : 0);
+
+        int length = 1 + (code == MessageType.UNKNOWN ? stringSize(type) : 0)
+            + varLongSize(message.getTime()) + stringSize(sender) + stringSize(content);
+        if (flags != 0) {
+            length += 1;
+            if ((flags & HAS_SEQ) != 0) {
+                length += varLongSize(message.getSeq());
+            }
+            if ((flags & HAS_TARGET) != 0) {
+                length += stringSize(target);
+            }
+            if ((flags & HAS_DATA) != 0) {
+                length += varLongSize(data.length) + data.length;
+            }
+        }
+        FrameCodec.checkLength(length);
+        ByteBuffer frame = ByteBuffer.allocate(FrameCodec.HEADER_SIZE + length);
+        frame.putInt(length);
+        frame.put(code);
+        if (code == MessageType.UNKNOWN) {
+            putString(frame, type);
+        }
+        putVarLong(frame, message.getTime());
+        putString(frame, sender);
+        putString(frame, content);
+        if (flags != 0) {
+            frame.put((byte) flags);
+            if ((flags & HAS_SEQ) != 0) {
+                putVarLong(frame, message.getSeq());
+            }
+            if ((flags & HAS_TARGET) != 0) {
+                putString(frame, target);
+            }
+            if ((flags & HAS_DATA) != 0) {
+                putVarLong(frame, data.length);
+                frame.put(data);
+            }
+        }
+        frame.flip();
+        return frame;
+    }
+
+    public Message decode(ByteBuffer payload) throws IOException {
+        try {
+            byte code = payload.get();
+            String type = code == MessageType.UNKNOWN ? getString(payload) : MessageType.name(code);
+            if (type == null) {
+                throw new IOException("未知的消息类型码: " + code);
+            }
+            long time = getVarLong(payload);
+            String sender = getString(payload);
+            String content = getString(payload);
+            Message message = new Message(type, sender, content, time);
+            if (payload.hasRemaining()) {
+                int flags = payload.get();
+                if ((flags & HAS_SEQ) != 0) {
+                    message.setSeq(getVarLong(payload));
+                }
+                if ((flags & HAS_TARGET) != 0) {
+                    message.setTarget(getString(payload));
+                }
+                if ((flags & HAS_DATA) != 0) {
+                    long length = getVarLong(payload);
+                    if (length > payload.remaining()) {
+                        throw new IOException("数据长度越界: " + length);
+                    }
+                    byte[] data = new byte[(int) length];
+                    payload.get(data);
+                    message.setData(data);
+                }
+            }
+            return message;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("消息帧不完整", e);
+        }
+    }
+
+    private static byte[] utf8(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static int stringSize(byte[] bytes) {
+        return bytes == null ? 1 : varLongSize(bytes.length + 1) + bytes.length;
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.put((byte) 0);
+        } else {
+            putVarLong(buffer, bytes.length + 1);
+            buffer.put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) throws IOException {
+        long length = getVarLong(buffer) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new IOException("字符串长度越界: " + length);
+        }
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                (int) length, StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[(int) length];
+            buffer.get(bytes, 0, bytes.length);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        buffer.position(buffer.position() + (int) length);
+        return value;
+    }
+
+    static int varLongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long getVarLong(ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("varint 过长");
+    }
+
+    public String toString() {
+        return "二进制";
+    }
+}
@@ -0,0 +1,24 @@
+package common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 消息编解码器，在握手阶段协商
+ */
+public interface Codec {
+    /**
+     * 握手时使用的编解码器编号
+     */
+    byte id();
+
+    /**
+     * 将消息编码为完整的帧（含4字节长度前缀），返回的缓冲区可直接写入通道
+     */
+    ByteBuffer encode(Message message) throws IOException;
+
+    /**
+     * 解码帧负载（不含长度前缀）
+     */
+    Message decode(ByteBuffer payload) throws IOException;
+}
@@ -0,0 +1,166 @@
+package common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 压缩包装：负载超过阈值的帧用 Deflate 压缩，其余帧原样发送（不增加任何字节）
+ * 压缩帧负载 = 0xFF + 原始长度(4字节) + 压缩数据；内层编解码器的负载不会以 0xFF 开头
+ * 握手时编解码器编号的最高位表示启用压缩
+ * Deflater/Inflater 和缓冲区放在池中重复使用，广播消息仍只压缩一次
+ */
+public class CompressedCodec implements Codec {
+    public static final byte FLAG = (byte) 0x80;
+    private static final byte MARKER = (byte) 0xFF;
+    private static final int COMPRESSED_HEADER = 5;
+
+    // 压缩阈值和级别，可通过 -Dchat.compress.threshold / -Dchat.compress.level 配置
+    static final int THRESHOLD = Integer.getInteger("chat.compress.threshold", 512);
+    static final int LEVEL = Integer.getInteger("chat.compress.level", Deflater.BEST_SPEED);
+
+    private static final CompressedCodec BINARY = new CompressedCodec(BinaryCodec.INSTANCE);
+    private static final CompressedCodec SERIALIZED = new CompressedCodec(SerializedCodec.INSTANCE);
+
+    private static final ConcurrentLinkedQueue<Compressor> compressors = new ConcurrentLinkedQueue<>();
+    private static final ConcurrentLinkedQueue<Decompressor> decompressors = new ConcurrentLinkedQueue<>();
+
+    // 统计：压缩帧数、压缩前后字节数、未压缩帧数、压缩和解压耗时
+    private static final LongAdder compressedFrames = new LongAdder();
+    private static final LongAdder rawBytes = new LongAdder();
+    private static final LongAdder wireBytes = new LongAdder();
+    private static final LongAdder plainFrames = new LongAdder();
+    private static final LongAdder compressNanos = new LongAdder();
+    private static final LongAdder decompressedFrames = new LongAdder();
+    private static final LongAdder decompressNanos = new LongAdder();
+
+    private static class Compressor {
+        final Deflater deflater = new Deflater(LEVEL);
+        byte[] buffer = new byte[8192];
+    }
+
+    private static class Decompressor {
+        final Inflater inflater = new Inflater();
+        byte[] buffer = new byte[8192];
+    }
+
+    private final Codec inner;
+
+    private CompressedCodec(Codec inner) {
+        this.inner = inner;
+    }
+
+    /**
+     * 给定编解码器的压缩版本，同一内层编解码器总是返回同一实例
+     */
+    public static Codec of(Codec inner) {
+        if (inner instanceof CompressedCodec) {
+            return inner;
+        }
+        return inner == SerializedCodec.INSTANCE ? SERIALIZED : BINARY;
+    }
+
+    public byte id() {
+        return (byte) (inner.id() | FLAG);
+    }
+
+    public ByteBuffer encode(Message message) throws IOException {
+        ByteBuffer frame = inner.encode(message);
+        int length = frame.remaining() - FrameCodec.HEADER_SIZE;
+        // 文件块通常是已压缩的格式，不值得再压缩
+        if (length < THRESHOLD || message.getData() != null) {
+            plainFrames.increment();
+            return frame;
+        }
+        long start = System.nanoTime();
+        Compressor compressor = compressors.poll();
+        if (compressor == null) {
+            compressor = new Compressor();
+        }
+        try {
+            Deflater deflater = compressor.deflater;
+            deflater.reset();
+            deflater.setInput(frame.array(), frame.arrayOffset() + frame.position() + FrameCodec.HEADER_SIZE, length);
+            deflater.finish();
+            int size = 0;
+            while (!deflater.finished()) {
+                if (size == compressor.buffer.length) {
+                    compressor.buffer = Arrays.copyOf(compressor.buffer, size * 2);
+                }
+                size += deflater.deflate(compressor.buffer, size, compressor.buffer.length - size);
+                if (size >= length) {
+                    // 压缩后没有变小，原样发送
+                    plainFrames.increment();
+                    return frame;
+                }
+            }
+            ByteBuffer compressed = ByteBuffer.allocate(FrameCodec.HEADER_SIZE + COMPRESSED_HEADER + size);
+            compressed.putInt(COMPRESSED_HEADER + size).put(MARKER).putInt(length).put(compressor.buffer, 0, size);
+            compressed.flip();
+            compressedFrames.increment();
+            rawBytes.add(length);
+            wireBytes.add(COMPRESSED_HEADER + size);
+            return compressed;
+        } finally {
+            compressors.offer(compressor);
+            compressNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    public Message decode(ByteBuffer payload) throws IOException {
+        if (!payload.hasRemaining() || payload.get(payload.position()) != MARKER) {
+            return inner.decode(payload);
+        }
+        long start = System.nanoTime();
+        payload.get();
+        int length = payload.getInt();
+        FrameCodec.checkLength(length); // 防止恶意的超大原始长度
+        Decompressor decompressor = decompressors.poll();
+        if (decompressor == null) {
+            decompressor = new Decompressor();
+        }
+        try {
+            if (decompressor.buffer.length < length) {
+                decompressor.buffer = new byte[Math.max(length, decompressor.buffer.length * 2)];
+            }
+            Inflater inflater = decompressor.inflater;
+            inflater.reset();
+            inflater.setInput(payload);
+            int size = inflater.inflate(decompressor.buffer, 0, length);
+            if (size != length || !inflater.finished()) {
+                throw new IOException("压缩帧长度不符");
+            }
+            Message message = inner.decode(ByteBuffer.wrap(decompressor.buffer, 0, length));
+            decompressedFrames.increment();
+            return message;
+        } catch (DataFormatException e) {
+            throw new IOException("压缩帧数据损坏", e);
+        } finally {
+            decompressors.offer(decompressor);
+            decompressNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 压缩比和耗时统计
+     */
+    public static String stats() {
+        long frames = compressedFrames.sum();
+        long raw = rawBytes.sum();
+        long wire = wireBytes.sum();
+        long decoded = decompressedFrames.sum();
+        return String.format("压缩帧 %d（未压缩 %d），%d → %d 字节，压缩率 %.1f%%，平均压缩 %d 微秒；解压帧 %d，平均解压 %d 微秒",
+            frames, plainFrames.sum(), raw, wire, raw > 0 ? 100.0 * wire / raw : 100.0,
+            frames > 0 ? compressNanos.sum() / frames / 1000 : 0,
+            decoded, decoded > 0 ? decompressNanos.sum() / decoded / 1000 : 0);
+    }
+
+    public String toString() {
+        return inner + "+deflate";
+    }
+}
\ No newline at end of file
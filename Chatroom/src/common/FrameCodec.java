@@ -0,0 +1,36 @@
+package common;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * 帧格式：4字节长度前缀 + 负载，负载格式由握手协商的 Codec 决定
+ * 阻塞式和 NIO 服务器引擎、客户端都使用同一帧格式
+ */
+public class FrameCodec {
+    public static final int HEADER_SIZE = 4;
+    public static final int MAX_FRAME_SIZE = 1 << 20; // 单帧最大1MB
+
+    /**
+     * 检查帧长度是否合法
+     */
+    public static void checkLength(int length) throws IOException {
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("非法的帧长度: " + length);
+        }
+    }
+
+    public static void writeFrame(DataOutputStream out, Codec codec, Message message) throws IOException {
+        ByteBuffer frame = codec.encode(message);
+        out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+        out.flush();
+    }
+
+    public static Message readFrame(DataInputStream in, Codec codec) throws IOException {
+        int length = in.readInt();
+        checkLength(length);
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return codec.decode(ByteBuffer.wrap(payload));
+    }
+}
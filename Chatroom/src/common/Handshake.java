@@ -0,0 +1,127 @@
+package common;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * 连接建立后的版本握手，协商帧负载使用的编解码器
+ * 握手包 = 魔数"LANC"(4字节) + 协议版本(1字节) + 编解码器编号(1字节)，应答格式相同
+ * 未发送握手包的旧版客户端：首4字节是帧长度，不可能等于魔数，服务器按Java序列化处理
+ * 最早版本的客户端直接写 ObjectOutputStream，不分帧，首4字节是对象流头，服务器直接拒绝
+ */
+public class Handshake {
+    public static final int MAGIC = 0x4C414E43; // "LANC"
+    public static final byte VERSION = 2;
+    // 从这个版本起客户端会应答 PING，服务器据此检测断线
+    public static final byte HEARTBEAT_VERSION = 2;
+    public static final int HELLO_SIZE = 6;
+    // ObjectOutputStream 的流头：魔数 0xACED + 版本 5
+    public static final int OBJECT_STREAM_HEADER = 0xACED0005;
+
+    /**
+     * 首4字节是Java对象流头时抛出异常，说明这是不兼容的最早版本客户端
+     */
+    public static void rejectObjectStream(int first) throws IOException {
+        if (first == OBJECT_STREAM_HEADER) {
+            throw new IOException("客户端使用未分帧的Java对象流（最早版本的协议），已不再支持，请升级客户端");
+        }
+    }
+
+    /**
+     * 客户端首选的编解码器，可通过 -Dchat.codec=serialized 选择旧版协议，
+     * -Dchat.compress=false 关闭大帧压缩
+     */
+    public static Codec preferredCodec() {
+        Codec codec = "serialized".equalsIgnoreCase(System.getProperty("chat.codec"))
+            ? SerializedCodec.INSTANCE : BinaryCodec.INSTANCE;
+        return Boolean.parseBoolean(System.getProperty("chat.compress", "true")) ? CompressedCodec.of(codec) : codec;
+    }
+
+    /**
+     * 根据编号查找编解码器，未知编号返回 null
+     */
+    public static Codec codecFor(byte id) {
+        if ((id & CompressedCodec.FLAG) != 0) {
+            Codec inner = codecFor((byte) (id & ~CompressedCodec.FLAG));
+            return inner != null ? CompressedCodec.of(inner) : null;
+        }
+        switch (id) {
+            case BinaryCodec.ID:
+                return BinaryCodec.INSTANCE;
+            case SerializedCodec.ID:
+                return SerializedCodec.INSTANCE;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 服务端选择编解码器：支持客户端的首选时采用，否则退回Java序列化
+     */
+    public static Codec negotiate(byte codecId) {
+        Codec codec = codecFor(codecId);
+        return codec != null ? codec : SerializedCodec.INSTANCE;
+    }
+
+    /**
+     * 构造握手包或应答包
+     */
+    public static ByteBuffer packet(Codec codec) {
+        ByteBuffer packet = ByteBuffer.allocate(HELLO_SIZE);
+        packet.putInt(MAGIC).put(VERSION).put(codec.id());
+        packet.flip();
+        return packet;
+    }
+
+    /**
+     * 客户端：发送握手包并读取服务器选择的编解码器
+     */
+    public static Codec connect(DataInputStream in, DataOutputStream out, Codec preferred) throws IOException {
+        out.write(packet(preferred).array());
+        out.flush();
+        if (in.readInt() != MAGIC) {
+            throw new IOException("服务器协议不兼容");
+        }
+        in.readByte(); // 服务器协议版本
+        Codec codec = codecFor(in.readByte());
+        if (codec == null) {
+            throw new IOException("服务器选择了不支持的编解码器");
+        }
+        return codec;
+    }
+
+    /**
+     * 服务端握手结果：协商出的编解码器和客户端协议版本，未握手的旧版客户端版本为 0
+     */
+    public static class Hello {
+        private final Codec codec;
+        private final byte version;
+
+        public Hello(Codec codec, byte version) {
+            this.codec = codec;
+            this.version = version;
+        }
+
+        public Codec getCodec() { return codec; }
+        public byte getVersion() { return version; }
+    }
+
+    /**
+     * 服务端（阻塞式）：读取握手包并应答；旧版客户端不消耗任何数据
+     * in 的底层流必须支持 mark/reset
+     */
+    public static Hello accept(DataInputStream in, OutputStream out) throws IOException {
+        in.mark(HELLO_SIZE);
+        int first = in.readInt();
+        rejectObjectStream(first);
+        if (first != MAGIC) {
+            in.reset();
+            return new Hello(SerializedCodec.INSTANCE, (byte) 0); // 未握手的旧版客户端
+        }
+        byte version = in.readByte();
+        Codec codec = negotiate(in.readByte());
+        out.write(packet(codec).array());
+        out.flush();
+        return new Hello(codec, version);
+    }
+}
@@ -1,32 +1,52 @@
 package common;
 
 import java.io.Serializable;
-import java.time.LocalDateTime;
+import java.time.Instant;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 
 public class Message implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
+    private static final DateTimeFormatter TIME_FORMAT =
+        DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneId.systemDefault());
     
     private String type;        // 消息类型：LOGIN, CHAT, LOGOUT
     private String sender;      // 发送者
     private String content;     // 消息内容
-    private String timestamp;   // 时间戳
+    private long time;          // 发送时间（毫秒时间戳）
+    private long seq;           // 序号，如花名册版本号
+    private String target;      // 目标：房间名
+    private byte[] data;        // 二进制数据：文件块
     
     public Message(String type, String sender, String content) {
+        this(type, sender, content, System.currentTimeMillis());
+    }
+    
+    public Message(String type, String sender, String content, long time) {
         this.type = type;
         this.sender = sender;
         this.content = content;
-        this.timestamp = LocalDateTime.now().format(
-            DateTimeFormatter.ofPattern("HH:mm:ss"));
+        this.time = time;
     }
     
     // Getter和Setter方法
     public String getType() { return type; }
     public String getSender() { return sender; }
     public String getContent() { return content; }
-    public String getTimestamp() { return timestamp; }
+    public long getTime() { return time; }
+    public long getSeq() { return seq; }
+    public void setSeq(long seq) { this.seq = seq; }
+    public String getTarget() { return target; }
+    public void setTarget(String target) { this.target = target; }
+    public byte[] getData() { return data; }
+    public void setData(byte[] data) { this.data = data; }
+    
+    // 显示用的时间，需要时才格式化
+    public String getTimestamp() {
+        return TIME_FORMAT.format(Instant.ofEpochMilli(time));
+    }
     
     public String toString() {
-        return String.format("[%s] %s: %s", timestamp, sender, content);
+        return String.format("[%s] %s: %s", getTimestamp(), sender, content);
     }
 }
\ No newline at end of file
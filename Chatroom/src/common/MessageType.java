@@ -0,0 +1,67 @@
+package common;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 消息类型与二进制协议中单字节类型码的对应关系
+ * 类型码 0 表示未登记的类型，类型名以字符串形式跟在后面
+ */
+public class MessageType {
+    public static final byte UNKNOWN = 0;
+
+    private static final String[] NAMES = {
+        null,
+        "LOGIN",
+        "LOGIN_SUCCESS",
+        "LOGIN_FAIL",
+        "CHAT",
+        "LOGOUT",
+        "SYSTEM",
+        "USER_LIST",
+        "FORCE_LOGOUT",
+        "ROSTER_SNAPSHOT",
+        "USER_JOINED",
+        "USER_LEFT",
+        "ROSTER_SYNC",
+        "JOIN_ROOM",
+        "LEAVE_ROOM",
+        "PRIVATE",
+        "PRIVATE_ACK",
+        "SEARCH",
+        "SEARCH_HIT",
+        "SEARCH_RESULT",
+        "FILE_OFFER",
+        "FILE_ACCEPT",
+        "FILE_CHUNK",
+        "FILE_ACK",
+        "FILE_CANCEL",
+        "HISTORY",
+        "HISTORY_END",
+        "PING",
+        "PONG",
+    };
+
+    private static final Map<String, Byte> CODES = new HashMap<>();
+
+    static {
+        for (int i = 1; i < NAMES.length; i++) {
+            CODES.put(NAMES[i], (byte) i);
+        }
+    }
+
+    /**
+     * 类型名转类型码，未登记的类型返回 UNKNOWN
+     */
+    public static byte code(String type) {
+        Byte code = CODES.get(type);
+        return code != null ? code : UNKNOWN;
+    }
+
+    /**
+     * 类型码转类型名，未登记的类型码返回 null
+     */
+    public static String name(byte code) {
+        return code > 0 && code < NAMES.length ? NAMES[code] : null;
+    }
+}
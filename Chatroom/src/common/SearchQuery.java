@@ -0,0 +1,51 @@
+package common;
+
+/**
+ * 聊天记录搜索条件，编码在 SEARCH 请求的消息内容中，每行一个字段：
+ * 关键词、发送者、起始时间、截止时间（毫秒时间戳，0表示不限）、页码
+ */
+public class SearchQuery {
+    public static final int PAGE_SIZE = 20;
+
+    private final String text;
+    private final String sender;
+    private final long from;
+    private final long to;
+    private final int page;
+
+    public SearchQuery(String text, String sender, long from, long to, int page) {
+        this.text = text != null ? text.replace('\n', ' ').trim() : "";
+        this.sender = sender != null ? sender.replace('\n', ' ').trim() : "";
+        this.from = from;
+        this.to = to;
+        this.page = Math.max(0, page);
+    }
+
+    public String getText() { return text; }
+    public String getSender() { return sender; }
+    public long getFrom() { return from; }
+    public long getTo() { return to; }
+    public int getPage() { return page; }
+
+    public String encode() {
+        return text + "\n" + sender + "\n" + from + "\n" + to + "\n" + page;
+    }
+
+    public static SearchQuery decode(String content) {
+        String[] fields = (content != null ? content : "").split("\n", -1);
+        return new SearchQuery(field(fields, 0), field(fields, 1),
+            number(field(fields, 2)), number(field(fields, 3)), (int) number(field(fields, 4)));
+    }
+
+    private static String field(String[] fields, int index) {
+        return index < fields.length ? fields[index] : "";
+    }
+
+    private static long number(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
\ No newline at end of file
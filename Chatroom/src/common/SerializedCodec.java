@@ -0,0 +1,49 @@
+package common;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * 旧版编解码：帧负载为 Java 序列化的 Message
+ * 负载来自网络，反序列化只允许 Message、String 和 byte[]，并限制深度、引用数和大小
+ */
+public class SerializedCodec implements Codec {
+    public static final byte ID = 1;
+    public static final SerializedCodec INSTANCE = new SerializedCodec();
+
+    // 白名单：Message 的字段只有 String、long 和 byte[]；其它类一律拒绝
+    private static final ObjectInputFilter FILTER = ObjectInputFilter.Config.createFilter(
+        "maxdepth=4;maxrefs=32;maxbytes=" + (FrameCodec.MAX_FRAME_SIZE + 1024) + ";maxarray=" + FrameCodec.MAX_FRAME_SIZE
+            + ";common.Message;java.lang.String;!*");
+
+    public byte id() {
+        return ID;
+    }
+
+    public ByteBuffer encode(Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        bytes.write(new byte[FrameCodec.HEADER_SIZE]); // 长度占位
+        // 每帧使用独立的 ObjectOutputStream，帧之间不共享句柄表
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message);
+        }
+        ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+        frame.putInt(0, frame.remaining() - FrameCodec.HEADER_SIZE);
+        return frame;
+    }
+
+    public Message decode(ByteBuffer payload) throws IOException {
+        byte[] data = new byte[payload.remaining()];
+        payload.get(data);
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            in.setObjectInputFilter(FILTER);
+            return (Message) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("无法解析的消息帧", e);
+        }
+    }
+
+    public String toString() {
+        return "Java序列化";
+    }
+}
@@ -0,0 +1,92 @@
+package server;
+
+import java.io.IOException;
+import java.net.*;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * 阻塞式引擎：ServerSocket.accept() 循环，每个连接一个 ClientHandler 线程
+ * 线程可以是平台线程池中的线程，也可以是每会话一个的虚拟线程
+ */
+public class BlockingServerEngine implements ServerEngine {
+    private ChatProtocol protocol;
+    private ServerSocket serverSocket;
+    private ExecutorService threadPool;
+    private Set<ClientHandler> handlers = ConcurrentHashMap.newKeySet();
+
+    public BlockingServerEngine(ChatProtocol protocol) {
+        this(protocol, Executors.newCachedThreadPool());
+    }
+
+    public BlockingServerEngine(ChatProtocol protocol, ExecutorService threadPool) {
+        this.protocol = protocol;
+        this.threadPool = threadPool;
+    }
+
+    /**
+     * 每个会话运行在独立虚拟线程上的阻塞式引擎
+     */
+    public static BlockingServerEngine virtualThreads(ChatProtocol protocol) {
+        return new BlockingServerEngine(protocol, Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    public void bind(InetAddress address, int port) throws IOException {
+        if (address != null) {
+            serverSocket = new ServerSocket(port, 50, address);
+        } else {
+            serverSocket = new ServerSocket(port);
+        }
+    }
+
+    public void serve() throws IOException {
+        while (!serverSocket.isClosed()) {
+            Socket clientSocket = serverSocket.accept();
+            ServerLog.info("收到来自 " + clientSocket.getInetAddress().getHostAddress() + " 的连接");
+            // 为每个客户端创建新线程
+            // 发送队列的写任务也提交到同一线程池
+            ClientHandler handler = new ClientHandler(clientSocket, protocol, threadPool);
+            handlers.add(handler);
+            threadPool.execute(() -> {
+                try {
+                    handler.run();
+                } finally {
+                    handlers.remove(handler);
+                }
+            });
+        }
+    }
+
+    public void closeListener() {
+        try {
+            // 关闭 ServerSocket（这会中断 serverSocket.accept()）
+            if (serverSocket != null && !serverSocket.isClosed()) {
+                serverSocket.close();
+                ServerLog.info("ServerSocket 已关闭");
+            }
+        } catch (IOException e) {
+            ServerLog.warn("关闭监听端口时发生错误: " + e.getMessage());
+        }
+    }
+
+    public void shutdown() {
+        closeListener();
+        // 关闭所有连接，阻塞在读取上的处理线程会立即退出
+        for (ClientHandler handler : handlers) {
+            handler.stop();
+        }
+        // 关闭线程池（等待现有任务完成）
+        if (!threadPool.isShutdown()) {
+            threadPool.shutdown();
+            try {
+                // 等待现有客户端处理线程完成（最多5秒）
+                if (!threadPool.awaitTermination(5, TimeUnit.SECONDS)) {
+                    threadPool.shutdownNow(); // 强制终止
+                }
+            } catch (InterruptedException e) {
+                threadPool.shutdownNow();
+            }
+            ServerLog.info("线程池已关闭");
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package server;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import common.BinaryCodec;
+import common.FrameCodec;
+import common.Message;
+
+/**
+ * 聊天记录：分段、内存映射、只追加的日志
+ * 记录 = 长度(4字节) + CRC32(4字节) + BinaryCodec 负载，长度为0表示段内已无记录
+ * 段文件名是段内第一条消息的序号；写入只是内存拷贝，由后台线程定时批量刷盘（组提交）
+ * 每段在内存中有一份稀疏索引（序号 → 位置）和出现过的房间，翻看历史时直接定位，不扫描整段
+ */
+public class ChatLog {
+    private static final String SUFFIX = ".seg";
+    private static final int RECORD_HEADER = 8;
+    // 每隔多少条记录保存一个索引项
+    private static final int INDEX_INTERVAL = 64;
+
+    // 均可通过 -Dchat.log.* 配置
+    static final long SEGMENT_BYTES = Math.max(Long.getLong("chat.log.segmentBytes", 16L << 20), 2L * FrameCodec.MAX_FRAME_SIZE);
+    static final long FLUSH_MILLIS = Long.getLong("chat.log.flushMillis", 50);
+    static final long RETAIN_BYTES = Long.getLong("chat.log.retainBytes", 256L << 20);
+    static final long RETAIN_MILLIS = TimeUnit.HOURS.toMillis(Long.getLong("chat.log.retainHours", 24 * 7));
+
+    private final File dir;
+    private final Object lock = new Object();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "chat-log-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // 历史查询在这个线程上读文件，不占用网络线程
+    private final ExecutorService reader = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "chat-log-reader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // 段的起始序号 → 段索引
+    private final Map<Long, SegmentIndex> indexes = new ConcurrentHashMap<>();
+    private FileChannel channel;
+    private SegmentIndex activeIndex;
+    private MappedByteBuffer active;
+    private long nextSeq = 1;
+    private boolean dirty;
+    private boolean closed;
+    private long recovered;
+
+    private ChatLog(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * 打开日志目录，扫描已有的段恢复写入位置和序号
+     */
+    public static ChatLog open(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("无法创建日志目录: " + dir);
+        }
+        ChatLog log = new ChatLog(dir);
+        log.recover();
+        log.flusher.scheduleWithFixedDelay(log::flush, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+        return log;
+    }
+
+    // 逐段扫描校验记录；最后一段从第一条无效记录处继续写，其后的残留清零
+    private void recover() throws IOException {
+        List<File> segments = segments();
+        for (File segment : segments) {
+            try (FileChannel ch = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer buffer = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                long[] last = {0};
+                SegmentIndex index = new SegmentIndex();
+                scan(buffer, (position, message) -> {
+                    last[0] = message.getSeq();
+                    index.add(position, message);
+                    recovered++;
+                });
+                indexes.put(baseSeq(segment), index);
+                if (last[0] >= nextSeq) {
+                    nextSeq = last[0] + 1;
+                }
+            }
+        }
+        if (segments.isEmpty()) {
+            openSegment(nextSeq);
+        } else {
+            File tail = segments.get(segments.size() - 1);
+            nextSeq = Math.max(nextSeq, baseSeq(tail));
+            mapSegment(tail);
+            int end = scan(active.duplicate(), message -> { });
+            if (active.remaining() - end >= 4 && active.getInt(end) != 0) {
+                // 上次写到一半的记录
+                active.position(end);
+                while (active.hasRemaining()) {
+                    active.put((byte) 0);
+                }
+                dirty = true;
+            }
+            active.position(end);
+        }
+        applyRetention();
+    }
+
+    /**
+     * 追加一条消息并为其分配序号；不等待刷盘
+     */
+    public void append(Message message) {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            message.setSeq(nextSeq);
+            try {
+                ByteBuffer frame = BinaryCodec.INSTANCE.encode(message);
+                int length = frame.getInt();
+                if (active.remaining() < RECORD_HEADER + length) {
+                    roll();
+                }
+                CRC32 crc = new CRC32();
+                crc.update(frame.duplicate());
+                activeIndex.add(active.position(), message);
+                active.putInt(length);
+                active.putInt((int) crc.getValue());
+                active.put(frame);
+                nextSeq++;
+                dirty = true;
+            } catch (IOException e) {
+                // 写日志失败不影响聊天
+                ServerLog.warn("聊天记录写入失败: " + e.getMessage());
+                message.setSeq(0);
+            }
+        }
+    }
+
+    // 当前段写满，刷盘后开启新段；换段很少发生，这里同步刷盘
+    private void roll() throws IOException {
+        active.force();
+        channel.close();
+        openSegment(nextSeq);
+        applyRetention();
+    }
+
+    private void openSegment(long baseSeq) throws IOException {
+        mapSegment(new File(dir, String.format("%020d%s", baseSeq, SUFFIX)));
+    }
+
+    private void mapSegment(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        active = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), SEGMENT_BYTES));
+        activeIndex = indexes.computeIfAbsent(baseSeq(file), base -> new SegmentIndex());
+    }
+
+    // 组提交：一次 force 覆盖上次刷盘以来的全部追加
+    private void flush() {
+        MappedByteBuffer target;
+        synchronized (lock) {
+            if (!dirty || closed) {
+                return;
+            }
+            dirty = false;
+            target = active;
+        }
+        target.force();
+    }
+
+    // 保留策略：总大小超限或段过旧时删除最老的段，当前段永不删除
+    private void applyRetention() {
+        List<File> segments = segments();
+        long total = 0;
+        for (File segment : segments) {
+            total += segment.length();
+        }
+        long expire = System.currentTimeMillis() - RETAIN_MILLIS;
+        for (int i = 0; i < segments.size() - 1; i++) {
+            File segment = segments.get(i);
+            if (total <= RETAIN_BYTES && segment.lastModified() >= expire) {
+                break;
+            }
+            long size = segment.length();
+            if (segment.delete()) {
+                total -= size;
+                indexes.remove(baseSeq(segment));
+            }
+        }
+    }
+
+    /**
+     * 按顺序读出日志中的全部消息
+     */
+    public void replay(Consumer<Message> consumer) throws IOException {
+        for (File segment : segments()) {
+            try (FileChannel ch = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+                scan(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()), consumer);
+            } catch (NoSuchFileException e) {
+                // 段已被保留策略删除
+            }
+        }
+    }
+
+    /**
+     * 在读线程上查询历史，结果通过 future 交回，调用方不会因读文件而阻塞
+     */
+    public CompletableFuture<List<Message>> historyAsync(String room, long beforeSeq, int limit) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return history(room, beforeSeq, limit);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, reader);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new IOException("聊天记录已关闭"));
+        }
+    }
+
+    /**
+     * 读出房间内序号小于 beforeSeq 的最近 limit 条聊天消息，按序号升序返回；beforeSeq 为 0 表示从最新处开始
+     * 从最新的段往前找，跳过不含该房间的段；段内按索引定位到 beforeSeq 附近，
+     * 再一块块（每块 INDEX_INTERVAL 条）往前扫描，凑够条数即停止
+     */
+    public List<Message> history(String room, long beforeSeq, int limit) throws IOException {
+        long before = beforeSeq > 0 ? beforeSeq : Long.MAX_VALUE;
+        List<File> segments = segments();
+        LinkedList<Message> result = new LinkedList<>();
+        for (int i = segments.size() - 1; i >= 0 && result.size() < limit; i--) {
+            File segment = segments.get(i);
+            SegmentIndex index = indexes.get(baseSeq(segment));
+            if (baseSeq(segment) >= before || index == null || !index.hasRoom(room)) {
+                continue;
+            }
+            ByteBuffer buffer;
+            try (FileChannel ch = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+                buffer = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            } catch (NoSuchFileException e) {
+                break; // 更早的段已被保留策略删除
+            }
+            for (int block = index.floor(before); block >= 0 && result.size() < limit; block--) {
+                ArrayDeque<Message> matched = new ArrayDeque<>();
+                int wanted = limit - result.size();
+                ByteBuffer range = buffer.duplicate();
+                range.limit(index.end(block, range.capacity())).position(index.position(block));
+                scan(range, (position, message) -> {
+                    if (message.getSeq() < before && "CHAT".equals(message.getType()) && roomOf(message).equals(room)) {
+                        if (matched.size() == wanted) {
+                            matched.removeFirst();
+                        }
+                        matched.addLast(message);
+                    }
+                });
+                while (!matched.isEmpty()) {
+                    result.addFirst(matched.removeLast());
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    // 未指定房间的聊天消息属于大厅
+    private static String roomOf(Message message) {
+        return message.getTarget() != null ? message.getTarget() : RoomManager.LOBBY;
+    }
+
+    private interface RecordConsumer {
+        void accept(int position, Message message);
+    }
+
+    private static int scan(ByteBuffer buffer, Consumer<Message> consumer) {
+        return scan(buffer, (position, message) -> consumer.accept(message));
+    }
+
+    // 从当前位置扫描到 limit，同时给出每条记录的起始位置；返回最后一条有效记录之后的位置
+    private static int scan(ByteBuffer buffer, RecordConsumer consumer) {
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= RECORD_HEADER) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > FrameCodec.MAX_FRAME_SIZE || length > buffer.remaining()) {
+                return start;
+            }
+            ByteBuffer payload = buffer.slice(buffer.position(), length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                return start;
+            }
+            try {
+                consumer.accept(start, BinaryCodec.INSTANCE.decode(payload));
+            } catch (IOException e) {
+                return start;
+            }
+            buffer.position(buffer.position() + length);
+        }
+        return buffer.position();
+    }
+
+    /**
+     * 一个段的稀疏索引：每 INDEX_INTERVAL 条记录保存一次序号和位置，另记下段内聊天消息出现过的房间
+     * 追加线程写、读线程查，方法都加锁
+     */
+    private static class SegmentIndex {
+        private long[] seqs = new long[16];
+        private int[] positions = new int[16];
+        private int size;
+        private long records;
+        private final Set<String> rooms = new HashSet<>();
+
+        synchronized void add(int position, Message message) {
+            if (records++ % INDEX_INTERVAL == 0) {
+                if (size == seqs.length) {
+                    seqs = Arrays.copyOf(seqs, size * 2);
+                    positions = Arrays.copyOf(positions, size * 2);
+                }
+                seqs[size] = message.getSeq();
+                positions[size] = position;
+                size++;
+            }
+            if ("CHAT".equals(message.getType())) {
+                rooms.add(roomOf(message));
+            }
+        }
+
+        synchronized boolean hasRoom(String room) {
+            return rooms.contains(room);
+        }
+
+        // 第一条序号小于 before 的最后一块，没有时返回 -1
+        synchronized int floor(long before) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (seqs[mid] < before) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return high;
+        }
+
+        synchronized int position(int block) {
+            return positions[block];
+        }
+
+        // 块的结束位置：下一块的起点，最后一块扫到段尾
+        synchronized int end(int block, int segmentEnd) {
+            return block + 1 < size ? positions[block + 1] : segmentEnd;
+        }
+    }
+
+    private List<File> segments() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        List<File> segments = new ArrayList<>(files != null ? Arrays.asList(files) : List.of());
+        segments.sort(Comparator.comparingLong(ChatLog::baseSeq));
+        return segments;
+    }
+
+    private static long baseSeq(File segment) {
+        String name = segment.getName();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // 下一条消息的序号
+    public long getNextSeq() {
+        synchronized (lock) {
+            return nextSeq;
+        }
+    }
+
+    // 启动时恢复的消息条数
+    public long getRecoveredCount() {
+        return recovered;
+    }
+
+    /**
+     * 刷盘并关闭，之后的追加被忽略
+     */
+    public void close() {
+        flusher.shutdown();
+        reader.shutdown();
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            active.force();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // 忽略关闭时的异常
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,308 @@
+package server;
+
+import java.io.IOException;
+import java.util.List;
+
+import common.Message;
+import common.SearchQuery;
+
+/**
+ * 聊天协议处理：登录、聊天、登出
+ * 与传输方式无关，阻塞引擎和NIO引擎共用
+ */
+public class ChatProtocol {
+    // 每次补发的历史消息条数
+    static final int HISTORY_PAGE = 100;
+
+    private UserManager userManager;
+
+    public ChatProtocol(UserManager userManager) {
+        this.userManager = userManager;
+    }
+
+    /**
+     * 处理一条来自客户端的消息
+     * @return false 表示会话应当结束
+     */
+    public boolean handle(ClientSession session, Message message) throws IOException {
+        ServerMetrics.messageIn();
+        session.markRead();
+        if ("PONG".equals(message.getType())) {
+            return true; // 心跳应答，记下活动时间即可
+        } else if ("PING".equals(message.getType())) {
+            session.send(new Message("PONG", "系统", ""));
+            return true;
+        }
+        if (session.getUsername() == null) {
+            handleLogin(session, message);
+            return true;
+        }
+        if ("CHAT".equals(message.getType())) {
+            handleChat(session, message);
+        } else if ("PRIVATE".equals(message.getType())) {
+            handlePrivate(session, message);
+        } else if (message.getType().startsWith("FILE_")) {
+            handleFile(session, message);
+        } else if ("SEARCH".equals(message.getType())) {
+            handleSearch(session, message);
+        } else if ("HISTORY".equals(message.getType())) {
+            handleHistory(session, message);
+        } else if ("JOIN_ROOM".equals(message.getType())) {
+            handleJoinRoom(session, message.getTarget());
+        } else if ("LEAVE_ROOM".equals(message.getType())) {
+            handleLeaveRoom(session, message.getTarget());
+        } else if ("ROSTER_SYNC".equals(message.getType())) {
+            userManager.sendRosterSnapshot(session);
+        } else if ("LOGOUT".equals(message.getType())) {
+            return false;
+        }
+        return true;
+    }
+
+    // 处理用户登录 - 支持重复用户名检查
+    private void handleLogin(ClientSession session, Message loginMsg) throws IOException {
+        if (!"LOGIN".equals(loginMsg.getType())) {
+            return; // 未登录前忽略其它消息
+        }
+        if (userManager.isDraining()) {
+            ServerMetrics.login(false);
+            session.send(new Message("LOGIN_FAIL", "系统", "服务器正在关闭"));
+            return;
+        }
+        String username = loginMsg.getSender();
+        if (username == null || username.trim().isEmpty() || username.contains(",")) {
+            ServerMetrics.login(false);
+            session.send(new Message("LOGIN_FAIL", "系统", "用户名不合法，请重新输入"));
+            return;
+        }
+
+        // 原子地预留用户名，重复时失败
+        if (userManager.reserve(username, session)) {
+            session.setUsername(username);
+            if (session.isClosed()) {
+                // 预留前连接已断开，onDisconnect 没看到用户名，由这里释放
+                userManager.removeUser(username, session);
+                return;
+            }
+            ServerMetrics.login(true);
+            // 发送登录成功消息
+            session.send(new Message("LOGIN_SUCCESS", "系统", "登录成功"));
+            // 所有用户默认进入大厅
+            joinRoom(session, RoomManager.LOBBY);
+            if (!userManager.activate(username, session)) {
+                // 登录过程中被踢出或连接已断开，撤销加入的大厅
+                userManager.getRoomManager().leaveAll(session);
+                return;
+            }
+
+            // 发送花名册快照、广播上线增量和系统消息（短时间内的上线会合并发布）
+            userManager.announceJoin(session);
+
+            ServerLog.info("用户 " + username + " 登录成功");
+        } else {
+            // 发送登录失败消息（用户名重复）
+            ServerMetrics.login(false);
+            session.send(new Message("LOGIN_FAIL", "系统", "用户名已存在，请重新输入"));
+            ServerLog.info("用户 " + username + " 登录失败：用户名重复");
+        }
+    }
+
+    // 聊天消息只发给目标房间的成员，未指定房间的视为大厅（兼容旧客户端）
+    private void handleChat(ClientSession session, Message message) throws IOException {
+        String room = message.getTarget() != null ? message.getTarget() : RoomManager.LOBBY;
+        RoomManager rooms = userManager.getRoomManager();
+        if (!rooms.isMember(room, session)) {
+            session.send(new Message("SYSTEM", "系统", "您不在房间 " + room + " 中，消息未发送"));
+            return;
+        }
+        message.setTarget(room);
+        userManager.broadcastToRoom(room, message);
+    }
+
+    // 私聊按用户名直接找到接收者的会话，只发给这一个人，并向发送者回执
+    private void handlePrivate(ClientSession session, Message message) throws IOException {
+        String recipient = message.getTarget();
+        ClientSession target = recipient != null ? userManager.getUserSession(recipient) : null;
+        ClusterNode cluster = userManager.getCluster();
+        Message delivered = new Message("PRIVATE", session.getUsername(), message.getContent());
+        delivered.setTarget(recipient);
+        try {
+            if (target != null) {
+                target.send(delivered);
+            } else if (cluster != null && cluster.isRemoteUser(recipient)) {
+                // 接收者在集群其它节点：只转给它所在的节点，由该节点确认送达后发回回执
+                delivered.setSeq(message.getSeq());
+                if (cluster.relayPrivate(delivered)) {
+                    return;
+                }
+                throw new IOException("节点不可达");
+            } else {
+                throw new IOException("用户不在线");
+            }
+        } catch (IOException e) {
+            session.send(new Message("SYSTEM", "系统", "用户 " + recipient + " 不在线，私聊未送达"));
+            return;
+        }
+        // 回执带回原消息和序号，发送者据此确认送达并显示
+        Message ack = new Message("PRIVATE_ACK", session.getUsername(), message.getContent());
+        ack.setTarget(recipient);
+        ack.setSeq(message.getSeq());
+        session.send(ack);
+    }
+
+    // 文件传输消息只转给对方；文件块走低优先级通道，不会拖慢聊天消息
+    private void handleFile(ClientSession session, Message message) throws IOException {
+        String recipient = message.getTarget();
+        ClientSession target = recipient != null ? userManager.getUserSession(recipient) : null;
+        if (target == null) {
+            if (!"FILE_CANCEL".equals(message.getType())) {
+                cancelTransfer(session, recipient, message, "对方不在线或不在同一服务器节点");
+            }
+            return;
+        }
+        Message forwarded = new Message(message.getType(), session.getUsername(), message.getContent());
+        forwarded.setTarget(recipient);
+        forwarded.setSeq(message.getSeq());
+        forwarded.setData(message.getData());
+        try {
+            if (!"FILE_CHUNK".equals(message.getType())) {
+                target.send(forwarded);
+                return;
+            }
+            switch (target.sendBulk(new EncodedMessage(forwarded), transferId(message))) {
+                case WINDOW_EXCEEDED:
+                    // 发送方没有遵守传输窗口，两边都取消
+                    cancelTransfer(session, recipient, message, "发送过快");
+                    cancelTransfer(target, session.getUsername(), message, "发送过快");
+                    break;
+                case TOO_MANY_TRANSFERS:
+                    cancelTransfer(session, recipient, message, "对方同时接收的文件过多，请稍后再试");
+                    cancelTransfer(target, session.getUsername(), message, "同时接收的文件过多");
+                    break;
+                default:
+                    break;
+            }
+        } catch (IOException e) {
+            cancelTransfer(session, recipient, message, "对方已断开");
+        }
+    }
+
+    // 文件传输消息内容的第一行是传输编号
+    private static String transferId(Message message) {
+        String content = message.getContent() != null ? message.getContent() : "";
+        int newline = content.indexOf('\n');
+        return newline >= 0 ? content.substring(0, newline) : content;
+    }
+
+    // 以 peer 的名义向 session 发送取消通知
+    private void cancelTransfer(ClientSession session, String peer, Message message, String reason) {
+        Message cancel = new Message("FILE_CANCEL", peer, transferId(message) + "\n" + reason);
+        cancel.setTarget(session.getUsername());
+        try {
+            session.send(cancel);
+        } catch (IOException e) {
+            // 连接已断开
+        }
+    }
+
+    // 搜索只覆盖用户当前所在房间的消息，逐条返回命中结果，最后一条汇总总数和页码
+    private void handleSearch(ClientSession session, Message message) throws IOException {
+        SearchQuery query = SearchQuery.decode(message.getContent());
+        if (query.getText().isEmpty() && query.getSender().isEmpty()) {
+            session.send(new Message("SYSTEM", "系统", "请输入搜索关键词或发送者"));
+            return;
+        }
+        SearchIndex.Result result = userManager.getSearchIndex().search(query, session.getRooms());
+        for (Message hit : result.getHits()) {
+            session.send(hit);
+        }
+        int pages = (result.getTotal() + SearchQuery.PAGE_SIZE - 1) / SearchQuery.PAGE_SIZE;
+        Message summary = new Message("SEARCH_RESULT", "系统",
+            "共找到 " + result.getTotal() + " 条，第 " + (query.getPage() + 1) + "/" + Math.max(pages, 1) + " 页");
+        summary.setSeq(result.getTotal());
+        session.send(summary);
+    }
+
+    // 客户端向上翻看时按需补发更早的房间消息：HISTORY 逐条按序号升序，HISTORY_END 收尾并带回条数
+    // 读文件在聊天记录的读线程上完成，不占用网络线程
+    private void handleHistory(ClientSession session, Message message) throws IOException {
+        String room = message.getTarget() != null ? message.getTarget() : RoomManager.LOBBY;
+        ChatLog log = userManager.getChatLog();
+        if (log == null || !userManager.getRoomManager().isMember(room, session)) {
+            sendHistory(session, room, List.of());
+            return;
+        }
+        log.historyAsync(room, message.getSeq(), HISTORY_PAGE).whenComplete((older, error) -> {
+            if (error != null) {
+                ServerLog.warn("读取聊天记录失败: " + error.getMessage());
+                older = List.of();
+            }
+            try {
+                sendHistory(session, room, older);
+            } catch (IOException e) {
+                // 连接已断开
+            }
+        });
+    }
+
+    private void sendHistory(ClientSession session, String room, List<Message> older) throws IOException {
+        for (Message original : older) {
+            Message replayed = new Message("HISTORY", original.getSender(), original.getContent(), original.getTime());
+            replayed.setTarget(room);
+            replayed.setSeq(original.getSeq());
+            session.send(replayed);
+        }
+        Message end = new Message("HISTORY_END", "系统", "");
+        end.setTarget(room);
+        end.setSeq(older.size());
+        session.send(end);
+    }
+
+    private void handleJoinRoom(ClientSession session, String room) throws IOException {
+        if (!RoomManager.isValidName(room)) {
+            session.send(new Message("SYSTEM", "系统", "房间名不合法"));
+            return;
+        }
+        room = room.trim();
+        if (!userManager.getRoomManager().isMember(room, session)) {
+            joinRoom(session, room);
+            Message notice = new Message("SYSTEM", "系统", session.getUsername() + " 加入了房间 " + room);
+            notice.setTarget(room);
+            userManager.broadcastToRoom(room, notice);
+        }
+    }
+
+    private void handleLeaveRoom(ClientSession session, String room) throws IOException {
+        if (RoomManager.LOBBY.equals(room)) {
+            session.send(new Message("SYSTEM", "系统", "不能退出大厅"));
+            return;
+        }
+        if (room != null && userManager.getRoomManager().leave(room, session)) {
+            Message reply = new Message("LEAVE_ROOM", "系统", "");
+            reply.setTarget(room);
+            session.send(reply);
+        }
+    }
+
+    // 加入房间并回复确认，客户端据此更新房间列表
+    private void joinRoom(ClientSession session, String room) throws IOException {
+        if (!userManager.getRoomManager().join(room, session)) {
+            return; // 会话已关闭
+        }
+        Message reply = new Message("JOIN_ROOM", "系统", "");
+        reply.setTarget(room);
+        session.send(reply);
+    }
+
+    /**
+     * 会话关闭时调用
+     */
+    public void onDisconnect(ClientSession session) {
+        userManager.getRoomManager().leaveAll(session);
+        String username = session.getUsername();
+        if (username != null && userManager.removeUser(username, session)) {
+            userManager.announceLeave(username);
+            ServerLog.info("用户 " + username + " 断开连接");
+        }
+    }
+}
@@ -2,74 +2,107 @@ package server;
 
 import java.io.*;
 import java.net.*;
-import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import common.Message;
 
 public class ChatServer {
-    private static final int PORT = 8888;
-    private ServerSocket serverSocket;
-    private ExecutorService threadPool;
+    // 同一台机器上运行多个集群节点时用 -Dchat.port 区分
+    private static final int PORT = Integer.getInteger("chat.port", 8888);
+    // 停止时等待会话写完积压的最长时间，可通过 -Dchat.shutdown.drainMillis 配置
+    static final long DRAIN_MILLIS = Long.getLong("chat.shutdown.drainMillis", 3000);
+    private ServerEngine engine;
+    private EngineType engineType;
     private AtomicBoolean isRunning; 
     private UserManager userManager;
     private InetAddress bindAddress;
+    private ClusterNode cluster;
     
     public ChatServer() {
-        this.threadPool = Executors.newCachedThreadPool();
-        this.userManager = new UserManager();
-        this.isRunning = new AtomicBoolean(false);
-        try {
-            // 默认绑定到所有网络接口
-            this.bindAddress = InetAddress.getByName("0.0.0.0");
-        } catch (UnknownHostException e) {
-            this.bindAddress = null;
-        }
+        this(new UserManager());
     }
     
     // 支持传入UserManager
     public ChatServer(UserManager userManager) {
-        this.threadPool = Executors.newCachedThreadPool();
         this.userManager = userManager;
         this.isRunning = new AtomicBoolean(false);
+        // 引擎类型可通过 -Dchat.engine=nio 指定
+        this.engineType = EngineType.parse(System.getProperty("chat.engine"));
         try {
+            // 默认绑定到所有网络接口
             this.bindAddress = InetAddress.getByName("0.0.0.0");
         } catch (UnknownHostException e) {
             this.bindAddress = null;
         }
     }
     
+    // 选择服务器引擎，需在 start() 之前调用
+    public void setEngineType(EngineType engineType) {
+        if (!isRunning.get()) {
+            this.engineType = engineType;
+        }
+    }
+    
+    public EngineType getEngineType() {
+        return engineType;
+    }
+    
     public void start() {
         try {
             isRunning.set(true); // 设置为运行状态
+            userManager.setDraining(false);
+            cluster = ClusterNode.fromSystemProperties(userManager, PORT);
+            openChatLog();
+            ServerMetrics.get().register(userManager);
             
+            engine = engineType.create(new ChatProtocol(userManager));
+            engine.bind(bindAddress, PORT);
             if (bindAddress != null) {
-                serverSocket = new ServerSocket(PORT, 50, bindAddress);
-                System.out.println("聊天服务器启动，绑定地址: " + bindAddress.getHostAddress() + "，端口：" + PORT);
+                ServerLog.info("聊天服务器启动，绑定地址: " + bindAddress.getHostAddress() + "，端口：" + PORT);
             } else {
-                serverSocket = new ServerSocket(PORT);
-                System.out.println("聊天服务器启动，端口：" + PORT);
+                ServerLog.info("聊天服务器启动，端口：" + PORT);
+            }
+            ServerLog.info("服务器引擎: " + engineType);
+            if (cluster != null) {
+                cluster.start();
+                userManager.setCluster(cluster);
             }
             // 显示服务器IP信息
-            System.out.println("服务器IP地址信息:");
-            System.out.println("1. 本机地址: localhost 或 127.0.0.1");
-            System.out.println("2. 局域网IP: " + getLocalIP());
+            ServerLog.info("服务器IP地址信息:");
+            ServerLog.info("1. 本机地址: localhost 或 127.0.0.1");
+            ServerLog.info("2. 局域网IP: " + getLocalIP());
             
-            while (!serverSocket.isClosed()) {
-                Socket clientSocket = serverSocket.accept();
-                System.out.println("收到来自 " + clientSocket.getInetAddress().getHostAddress() + " 的连接");
-                // 为每个客户端创建新线程
-                ClientHandler clientHandler = new ClientHandler(clientSocket, userManager);
-                threadPool.execute(clientHandler);
-            }
-            // return;
+            engine.serve();
         } catch (IOException e) {
             if (isRunning.get()) {
-                e.printStackTrace();
+                ServerLog.error("服务器监听失败", e);
             }
         }
     }
     
+    // 打开聊天记录目录（-Dchat.log.dir），打不开时不保存记录继续运行
+    private void openChatLog() {
+        // 集群节点各用各的目录
+        String defaultDir = cluster != null ? "chatlog-" + cluster.getNodeId() : "chatlog";
+        File dir = new File(System.getProperty("chat.log.dir", defaultDir));
+        try {
+            ChatLog chatLog = ChatLog.open(dir);
+            // 用历史聊天消息重建搜索索引
+            SearchIndex searchIndex = userManager.getSearchIndex();
+            if (searchIndex.size() == 0) {
+                chatLog.replay(message -> {
+                    if ("CHAT".equals(message.getType())) {
+                        searchIndex.add(message);
+                    }
+                });
+            }
+            userManager.setChatLog(chatLog);
+            ServerLog.info("聊天记录目录: " + dir.getAbsolutePath() + "，已恢复 " + chatLog.getRecoveredCount() + " 条消息");
+        } catch (IOException e) {
+            ServerLog.warn("无法打开聊天记录，消息将不会保存: " + e.getMessage());
+        }
+    }
+    
     // 新增：获取本机局域网IP
     private String getLocalIP() {
         try {
@@ -80,43 +113,49 @@ public class ChatServer {
         }
     }
     
-    public void stopServer() {
+    /**
+     * 停止服务器：停止接受连接，所有会话并行写完积压和告别消息后关闭，最多等待 DRAIN_MILLIS
+     * @return 各会话的收尾结果，服务器未运行时为 null
+     */
+    public DrainReport stopServer() {
         if (!isRunning.get()) {
-            return; // 服务器已经在停止状态
+            return null; // 服务器已经在停止状态
         }
         
         isRunning.set(false); // 设置停止标志
-        System.out.println("正在停止服务器...");
+        ServerLog.info("正在停止服务器...");
         
-        try {
-            // 1. 关闭 ServerSocket（这会中断 serverSocket.accept()）
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
-                System.out.println("ServerSocket 已关闭");
-            }
+        DrainReport report = null;
+        if (engine != null) {
+            // 1. 停止接受新连接
+            engine.closeListener();
             
-            // 2. 通知所有用户服务器关闭
-            userManager.broadcastMessage(new Message("FORCE_LOGOUT", "服务器", "服务器正在关闭..."));
-            
-            // 3. 关闭线程池（等待现有任务完成）
-            if (threadPool != null && !threadPool.isShutdown()) {
-                threadPool.shutdown();
-                try {
-                    // 等待现有客户端处理线程完成（最多5秒）
-                    if (!threadPool.awaitTermination(5, TimeUnit.SECONDS)) {
-                        threadPool.shutdownNow(); // 强制终止
-                    }
-                } catch (InterruptedException e) {
-                    threadPool.shutdownNow();
-                }
-                System.out.println("线程池已关闭");
+            // 2. 所有会话同时收尾，截止时间到了仍未写完的一起关闭
+            report = userManager.drainSessions(new Message("FORCE_LOGOUT", "服务器", "服务器正在关闭..."), DRAIN_MILLIS);
+            for (DrainReport.Entry entry : report.getEntries()) {
+                ServerLog.info("  " + entry);
             }
+            ServerLog.info(report.getSummary());
             
-            System.out.println("服务器已成功停止");
-            
-        } catch (IOException e) {
-            System.out.println("停止服务器时发生错误: " + e.getMessage());
+            // 3. 关闭引擎（未登录的连接和剩余线程）
+            engine.shutdown();
+        }
+        
+        if (cluster != null) {
+            userManager.setCluster(null);
+            cluster.shutdown();
+            cluster = null;
         }
+        
+        // 4. 聊天记录刷盘
+        ChatLog chatLog = userManager.getChatLog();
+        if (chatLog != null) {
+            userManager.setChatLog(null);
+            chatLog.close();
+        }
+        
+        ServerLog.info("服务器已成功停止");
+        return report;
     }
     
     // 新增：检查服务器是否正在运行
@@ -125,6 +164,10 @@ public class ChatServer {
     }
     
     public static void main(String[] args) {
-        new ChatServer().start();
+        ChatServer server = new ChatServer();
+        if (args.length > 0) {
+            server.setEngineType(EngineType.parse(args[0]));
+        }
+        server.start();
     }
 }
\ No newline at end of file
@@ -0,0 +1,246 @@
+package server;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import common.Codec;
+import common.Message;
+import common.SerializedCodec;
+
+/**
+ * 一个客户端连接会话，屏蔽底层传输方式（阻塞Socket或NIO通道）
+ * 发送的消息先进入会话自己的有界队列，再由唯一的写线程写出
+ */
+public abstract class ClientSession {
+    // 断开慢速客户端时，给断开通知留出的发送时间
+    private static final long CLOSE_GRACE_MILLIS = 2000;
+    private static final ScheduledExecutorService closeTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "session-close-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile String username;
+    private volatile Codec codec = SerializedCodec.INSTANCE;
+    private volatile boolean closeAfterFlush;
+    private volatile long lastReadTick; // 最近一次收到帧时心跳时间轮的刻度
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final ChatProtocol protocol;
+    private final Set<String> rooms = ConcurrentHashMap.newKeySet();
+    protected final OutboundQueue outbound = new OutboundQueue();
+
+    protected ClientSession(ChatProtocol protocol) {
+        this.protocol = protocol;
+        ServerMetrics.connectionOpened();
+    }
+
+    public String getUsername() { return username; }
+    void setUsername(String username) { this.username = username; }
+
+    public boolean isClosed() { return closed.get(); }
+
+    // 已加入的房间，断开时据此退出
+    public Set<String> getRooms() { return new HashSet<>(rooms); }
+    void joinedRoom(String room) { rooms.add(room); }
+    void leftRoom(String room) { rooms.remove(room); }
+
+    // 握手协商出的编解码器
+    public Codec getCodec() { return codec; }
+    void setCodec(Codec codec) { this.codec = codec; }
+
+    // 收到一帧：只记下时间轮刻度，空闲检查在时间轮上进行
+    void markRead() { lastReadTick = Heartbeat.now(); }
+    long getLastReadTick() { return lastReadTick; }
+    
+    // 发送队列状态
+    public int getQueueDepth() { return outbound.size(); }
+    public int getQueueHighWater() { return outbound.getHighWater(); }
+    public long getDroppedCount() { return outbound.getDropped(); }
+
+    /**
+     * 该连接当前占用的缓冲内存：待发送的帧 + 读缓冲区
+     */
+    public long getBufferedBytes() {
+        return outbound.getBufferedBytes() + inboundBufferBytes();
+    }
+
+    /**
+     * 读缓冲区占用的字节数
+     */
+    protected abstract int inboundBufferBytes();
+
+    /**
+     * 向该客户端发送一条消息
+     */
+    public void send(Message message) throws IOException {
+        send(new EncodedMessage(message));
+    }
+
+    /**
+     * 发送已编码的消息，广播时多个会话共享同一份编码结果
+     * 只入队不写出，队列满时按溢出策略处理
+     */
+    public void send(EncodedMessage message) throws IOException {
+        if (isClosed() || closeAfterFlush) {
+            throw new IOException("会话已关闭");
+        }
+        if (outbound.offer(message, message.frameSize(getCodec()), mayBlock())) {
+            scheduleWrite();
+        } else {
+            disconnect("接收消息过慢，发送队列已满");
+        }
+    }
+
+    /**
+     * 发送文件块，走低优先级通道，不影响聊天消息
+     * @param transfer 传输编号，文件块通道按传输分别限额
+     */
+    public OutboundQueue.BulkResult sendBulk(EncodedMessage message, String transfer) throws IOException {
+        if (isClosed() || closeAfterFlush) {
+            throw new IOException("会话已关闭");
+        }
+        OutboundQueue.BulkResult result = outbound.offerBulk(message, message.frameSize(getCodec()), transfer);
+        if (result == OutboundQueue.BulkResult.ACCEPTED) {
+            scheduleWrite();
+        }
+        return result;
+    }
+
+    /**
+     * 在时间轮线程上发送心跳，从不阻塞；队列已满时本轮不发送
+     */
+    void sendPing(EncodedMessage ping) {
+        trySend(ping);
+    }
+
+    /**
+     * 尝试发送，从不阻塞也不断开连接；队列已满或会话已关闭时放弃并返回 false
+     * 用于心跳和花名册这类丢了可以自行补上的消息
+     */
+    boolean trySend(EncodedMessage message) {
+        if (isClosed() || closeAfterFlush) {
+            return false;
+        }
+        try {
+            if (outbound.offer(message, message.frameSize(getCodec()), false)) {
+                scheduleWrite();
+                return true;
+            }
+        } catch (IOException e) {
+            // 编码失败，放弃这条消息
+        }
+        return false;
+    }
+    
+    /**
+     * 当前线程能否在队列满时阻塞等待
+     */
+    protected boolean mayBlock() {
+        return true;
+    }
+
+    /**
+     * 通知写线程有新消息需要写出
+     */
+    protected abstract void scheduleWrite();
+
+    /**
+     * 写线程写完队列后调用，处理延迟关闭
+     */
+    protected void onDrained() {
+        if (closeAfterFlush && outbound.isEmpty()) {
+            close();
+        }
+    }
+
+    /**
+     * 等待已入队的消息全部写出
+     */
+    public boolean awaitDrained(long millis) {
+        return outbound.awaitDrained(millis);
+    }
+
+    /**
+     * 阻塞直到发送队列积压降到低水位以下或会话关闭
+     */
+    public void awaitOutboundBelowLowWater() {
+        while (!isClosed() && !outbound.awaitBelowLowWater(1000)) {
+            // 继续等待
+        }
+    }
+
+    /**
+     * 丢弃未发送的消息，发送断开原因后关闭会话
+     */
+    public void disconnect(String reason) {
+        if (isClosed() || closeAfterFlush) {
+            return;
+        }
+        ServerLog.info("断开用户 " + username + "：" + reason);
+        ServerMetrics.forcedDisconnect();
+        EncodedMessage notice = new EncodedMessage(new Message("FORCE_LOGOUT", "系统", reason));
+        try {
+            outbound.replaceAll(notice, notice.frameSize(getCodec()));
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        closeAfterFlush = true;
+        scheduleWrite();
+        // 客户端迟迟不读取时也要按时关闭
+        closeTimer.schedule(this::close, CLOSE_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 优雅关闭：在已排队的聊天消息之后追加告别消息，写完后自动关闭，之后不再接受新消息；从不阻塞
+     * 未写出的文件块直接丢弃（传输可续传）；队列已满放不下告别消息时放弃积压，只发送告别消息
+     * @return 放弃的消息条数，会话已关闭时返回 -1
+     */
+    int closeGracefully(EncodedMessage goodbye) {
+        if (isClosed() || closeAfterFlush) {
+            return -1;
+        }
+        int discarded = outbound.discardBulk();
+        try {
+            int bytes = goodbye.frameSize(getCodec());
+            if (!outbound.offer(goodbye, bytes, false)) {
+                discarded += outbound.size();
+                outbound.replaceAll(goodbye, bytes);
+            }
+        } catch (IOException e) {
+            close();
+            return -1;
+        }
+        closeAfterFlush = true;
+        scheduleWrite();
+        return discarded;
+    }
+    
+    /**
+     * 远端地址，用于日志
+     */
+    public abstract String getRemoteAddress();
+
+    /**
+     * 关闭底层连接，由子类实现
+     */
+    protected abstract void closeTransport();
+
+    /**
+     * 关闭会话；只会执行一次，并通知协议层用户离开
+     */
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            ServerMetrics.connectionClosed();
+            closeTransport();
+            outbound.clear();
+            protocol.onDisconnect(this);
+        }
+    }
+}
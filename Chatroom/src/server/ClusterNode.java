@@ -0,0 +1,482 @@
+package server;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import common.BinaryCodec;
+import common.FrameCodec;
+import common.Message;
+
+/**
+ * 集群节点：在多个服务器进程之间转发聊天和上下线事件，维护合并后的花名册
+ * 每对节点之间有两条单向连接：本节点主动连接每个对端用于发送，接受对端的连接用于接收
+ * 事件只由产生它的节点发出，不再二次转发
+ * 两个节点同时接受同一用户名时，节点名较小的一方保留，另一方踢出自己的用户
+ * 集群端口默认只绑定本机回环地址；连入的节点必须在对端列表中，并用共享密钥签名 NODE_HELLO
+ */
+public class ClusterNode {
+    private static final long RECONNECT_MILLIS = 1000;
+    private static final int LINK_QUEUE_CAPACITY = 65536;
+    private static final int HELLO_TIMEOUT_MILLIS = 5000;
+    // NODE_HELLO 中的时间戳与本机时钟允许的偏差
+    private static final long HELLO_MAX_SKEW_MILLIS = 60_000;
+
+    private final String nodeId;
+    private final int port;
+    private final InetAddress bindAddress;
+    private final byte[] secret;
+    private final UserManager userManager;
+    private final List<PeerLink> links = new ArrayList<>();
+    // 其它节点上的用户：用户名 → 节点名
+    private final ConcurrentHashMap<String, String> remoteUsers = new ConcurrentHashMap<>();
+    // 每个对端当前的接收连接，对端重连后旧连接作废
+    private final ConcurrentHashMap<String, Socket> inbound = new ConcurrentHashMap<>();
+    // 通过认证的节点名 → 到该节点的发送连接，私聊和回执只发给对应节点
+    private final ConcurrentHashMap<String, PeerLink> linkByNode = new ConcurrentHashMap<>();
+    private ServerSocket serverSocket;
+    private volatile boolean running;
+
+    public ClusterNode(String nodeId, InetAddress bindAddress, int port, List<InetSocketAddress> peers,
+                       String secret, UserManager userManager) {
+        this.nodeId = nodeId;
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.userManager = userManager;
+        for (InetSocketAddress peer : peers) {
+            links.add(new PeerLink(peer));
+        }
+    }
+
+    /**
+     * 按 -Dchat.cluster.port / -Dchat.cluster.peers / -Dchat.cluster.bind / -Dchat.cluster.secret / -Dchat.node.id 创建节点
+     * 未配置集群端口或共享密钥时返回 null
+     */
+    public static ClusterNode fromSystemProperties(UserManager userManager, int chatPort) {
+        Integer port = Integer.getInteger("chat.cluster.port");
+        if (port == null) {
+            return null;
+        }
+        List<InetSocketAddress> peers = new ArrayList<>();
+        for (String peer : System.getProperty("chat.cluster.peers", "").split(",")) {
+            peer = peer.trim();
+            int colon = peer.lastIndexOf(':');
+            if (colon > 0) {
+                peers.add(InetSocketAddress.createUnresolved(peer.substring(0, colon),
+                    Integer.parseInt(peer.substring(colon + 1))));
+            }
+        }
+        String secret = System.getProperty("chat.cluster.secret", "");
+        if (secret.isEmpty()) {
+            ServerLog.warn("未设置 -Dchat.cluster.secret，集群功能未启用");
+            return null;
+        }
+        String bind = System.getProperty("chat.cluster.bind");
+        InetAddress bindAddress;
+        try {
+            bindAddress = bind != null ? InetAddress.getByName(bind) : defaultBindAddress(peers);
+        } catch (UnknownHostException e) {
+            ServerLog.warn("无法解析集群绑定地址 " + bind + "，集群功能未启用");
+            return null;
+        }
+        String nodeId = System.getProperty("chat.node.id", "node-" + chatPort);
+        return new ClusterNode(nodeId, bindAddress, port, peers, secret, userManager);
+    }
+
+    // 对端都在本机时只绑定回环地址，否则绑定通往第一个外部对端的本机网卡地址
+    private static InetAddress defaultBindAddress(List<InetSocketAddress> peers) {
+        for (InetSocketAddress peer : peers) {
+            try {
+                InetAddress address = InetAddress.getByName(peer.getHostString());
+                if (address.isLoopbackAddress()) {
+                    continue;
+                }
+                try (DatagramSocket probe = new DatagramSocket()) {
+                    probe.connect(address, peer.getPort()); // UDP connect 不发包，只选出路由用的本机地址
+                    return probe.getLocalAddress();
+                }
+            } catch (IOException e) {
+                // 解析失败的对端不参与选择
+            }
+        }
+        return InetAddress.getLoopbackAddress();
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(port, 50, bindAddress);
+        running = true;
+        Thread acceptor = new Thread(this::acceptLoop, "cluster-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        for (PeerLink link : links) {
+            Thread thread = new Thread(link::run, "cluster-link-" + link.address);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        ServerLog.info("集群节点 " + nodeId + " 监听 " + bindAddress.getHostAddress() + ":" + port + "，对端 " + links.size() + " 个");
+    }
+
+    // ===== 发送 =====
+
+    /**
+     * 转发一条本节点产生的消息给所有对端
+     */
+    public void relay(Message message) {
+        EncodedMessage encoded = new EncodedMessage(message);
+        for (PeerLink link : links) {
+            link.offer(encoded);
+        }
+    }
+
+    /**
+     * 把私聊只发给接收者所在的节点，该节点没有可用连接时返回 false
+     */
+    public boolean relayPrivate(Message message) {
+        return relayTo(remoteUsers.get(message.getTarget()), message);
+    }
+
+    private boolean relayTo(String node, Message message) {
+        PeerLink link = node != null ? linkByNode.get(node) : null;
+        return link != null && link.offer(new EncodedMessage(message));
+    }
+
+    // 本节点用户上线/下线
+    public void relayJoin(String username) {
+        relay(new Message("USER_JOINED", nodeId, username));
+    }
+
+    public void relayLeave(String username) {
+        relay(new Message("USER_LEFT", nodeId, username));
+    }
+
+    /**
+     * 到一个对端的发送连接，断开后自动重连并重新发送本节点的用户列表
+     */
+    private class PeerLink {
+        private final String address;
+        private final String host;
+        private final int port;
+        private final BlockingQueue<EncodedMessage> queue = new ArrayBlockingQueue<>(LINK_QUEUE_CAPACITY);
+        private Socket socket;
+        private boolean connected;
+
+        PeerLink(InetSocketAddress peer) {
+            this.host = peer.getHostString();
+            this.port = peer.getPort();
+            this.address = host + ":" + port;
+        }
+
+        synchronized boolean offer(EncodedMessage message) {
+            if (!connected) {
+                return false;
+            }
+            if (!queue.offer(message)) {
+                // 对端处理不过来，断开重连后用快照重新同步
+                ServerLog.warn("集群连接 " + address + " 积压过多，重新连接");
+                disconnect();
+                return false;
+            }
+            return true;
+        }
+
+        // 连入的节点是否就是这个对端：来源地址属于对端主机，且声明的集群端口一致
+        boolean matches(InetAddress source, int listenPort) {
+            if (listenPort != port) {
+                return false;
+            }
+            try {
+                for (InetAddress address : InetAddress.getAllByName(host)) {
+                    if (address.equals(source)) {
+                        return true;
+                    }
+                }
+            } catch (UnknownHostException e) {
+                // 无法解析时视为不匹配
+            }
+            return false;
+        }
+
+        // 连接建立时先发送身份和当前用户快照，与 offer 互斥以保证快照在之后的增量之前
+        private synchronized void connected(Socket socket) {
+            this.socket = socket;
+            queue.clear();
+            queue.add(new EncodedMessage(new Message("NODE_HELLO", nodeId, hello())));
+            queue.add(new EncodedMessage(new Message("ROSTER_SNAPSHOT", nodeId, String.join(",", userManager.getOnlineUsers()))));
+            connected = true;
+        }
+
+        private synchronized boolean isConnected() {
+            return connected;
+        }
+
+        private synchronized void disconnect() {
+            connected = false;
+            queue.clear();
+            closeQuietly(socket);
+        }
+
+        void run() {
+            while (running) {
+                try (Socket s = new Socket()) {
+                    s.connect(new InetSocketAddress(host, port), (int) RECONNECT_MILLIS);
+                    s.setTcpNoDelay(true);
+                    connected(s);
+                    ServerLog.info("已连接集群节点 " + address);
+                    OutputStream out = new BufferedOutputStream(s.getOutputStream(), StreamSession.BUFFER_SIZE);
+                    while (running && isConnected()) {
+                        EncodedMessage message = queue.poll(RECONNECT_MILLIS, TimeUnit.MILLISECONDS);
+                        if (message == null) {
+                            continue;
+                        }
+                        message.writeTo(out, BinaryCodec.INSTANCE);
+                        if (queue.isEmpty()) {
+                            out.flush();
+                        }
+                    }
+                } catch (IOException e) {
+                    // 连接失败或断开，稍后重试
+                } catch (InterruptedException e) {
+                    return;
+                }
+                disconnect();
+                sleep();
+            }
+        }
+    }
+
+    // ===== 接收 =====
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread thread = new Thread(() -> receive(socket), "cluster-receiver");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (running) {
+                    ServerLog.error("集群端口接受连接失败", e);
+                }
+            }
+        }
+    }
+
+    private void receive(Socket socket) {
+        String peer = null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), StreamSession.BUFFER_SIZE))) {
+            socket.setSoTimeout(HELLO_TIMEOUT_MILLIS);
+            Message hello = FrameCodec.readFrame(in, BinaryCodec.INSTANCE);
+            PeerLink link = authenticate(socket.getInetAddress(), hello);
+            if (link == null) {
+                ServerLog.warn("拒绝未认证的集群连接 " + socket.getRemoteSocketAddress());
+                return;
+            }
+            socket.setSoTimeout(0);
+            peer = hello.getSender();
+            closeQuietly(inbound.put(peer, socket));
+            linkByNode.put(peer, link);
+            ServerLog.info("集群节点 " + peer + " 已连入");
+            while (running) {
+                dispatch(peer, FrameCodec.readFrame(in, BinaryCodec.INSTANCE));
+            }
+        } catch (IOException e) {
+            // 对端断开
+        } finally {
+            closeQuietly(socket);
+            if (peer != null && inbound.remove(peer, socket)) {
+                linkByNode.remove(peer);
+                ServerLog.info("集群节点 " + peer + " 已断开");
+                dropNode(peer);
+            }
+        }
+    }
+
+    private void dispatch(String peer, Message message) {
+        switch (message.getType()) {
+            case "CHAT":
+            case "SYSTEM": // 房间通知（如“加入了房间”），和聊天消息一样只发给本节点的房间成员
+                userManager.deliverFromCluster(message);
+                break;
+            case "PRIVATE":
+                // 接收者在本节点：把送达结果发回发送者所在的节点
+                boolean delivered = userManager.deliverPrivateFromCluster(message);
+                Message result = new Message(delivered ? "PRIVATE_ACK" : "PRIVATE_FAIL", message.getSender(), message.getContent());
+                result.setTarget(message.getTarget());
+                result.setSeq(message.getSeq());
+                relayTo(peer, result);
+                break;
+            case "PRIVATE_ACK":
+            case "PRIVATE_FAIL":
+                userManager.deliverPrivateResult(message);
+                break;
+            case "USER_JOINED":
+                for (String name : names(message)) {
+                    remoteJoined(peer, name);
+                }
+                break;
+            case "USER_LEFT":
+                for (String name : names(message)) {
+                    remoteLeft(peer, name);
+                }
+                break;
+            case "ROSTER_SNAPSHOT":
+                Set<String> current = new HashSet<>(names(message));
+                for (Map.Entry<String, String> entry : remoteUsers.entrySet()) {
+                    if (entry.getValue().equals(peer) && !current.contains(entry.getKey())) {
+                        remoteLeft(peer, entry.getKey());
+                    }
+                }
+                for (String name : current) {
+                    remoteJoined(peer, name);
+                }
+                break;
+        }
+    }
+
+    // ===== 认证 =====
+
+    // NODE_HELLO 内容：集群端口:时间戳:HMAC-SHA256(密钥, 节点名:集群端口:时间戳)
+    private String hello() {
+        String signed = port + ":" + System.currentTimeMillis();
+        return signed + ":" + sign(nodeId + ":" + signed);
+    }
+
+    // 校验签名和时间戳，并且来源必须是配置的对端之一，返回对应的发送连接
+    private PeerLink authenticate(InetAddress source, Message hello) {
+        if (!"NODE_HELLO".equals(hello.getType()) || hello.getSender() == null || hello.getContent() == null
+            || hello.getSender().equals(nodeId)) {
+            return null;
+        }
+        String[] parts = hello.getContent().split(":");
+        if (parts.length != 3) {
+            return null;
+        }
+        int listenPort;
+        long time;
+        try {
+            listenPort = Integer.parseInt(parts[0]);
+            time = Long.parseLong(parts[1]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (Math.abs(System.currentTimeMillis() - time) > HELLO_MAX_SKEW_MILLIS) {
+            return null;
+        }
+        String expected = sign(hello.getSender() + ":" + parts[0] + ":" + parts[1]);
+        if (!MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8), parts[2].getBytes(StandardCharsets.UTF_8))) {
+            return null;
+        }
+        for (PeerLink link : links) {
+            if (link.matches(source, listenPort)) {
+                return link;
+            }
+        }
+        return null;
+    }
+
+    private String sign(String text) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : mac.doFinal(text.getBytes(StandardCharsets.UTF_8))) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 不可用", e);
+        }
+    }
+
+    private void remoteJoined(String peer, String username) {
+        if (userManager.isLocalUser(username)) {
+            if (nodeId.compareTo(peer) < 0) {
+                return; // 本节点保留，对端会踢出它的用户
+            }
+            userManager.resolveConflict(username);
+        }
+        if (remoteUsers.put(username, peer) == null) {
+            userManager.announceRemoteJoin(username);
+        }
+    }
+
+    private void remoteLeft(String peer, String username) {
+        if (remoteUsers.remove(username, peer)) {
+            userManager.announceRemoteLeave(username);
+        }
+    }
+
+    // 对端节点断开，它的用户全部视为下线
+    private void dropNode(String peer) {
+        for (Map.Entry<String, String> entry : remoteUsers.entrySet()) {
+            if (entry.getValue().equals(peer)) {
+                remoteLeft(peer, entry.getKey());
+            }
+        }
+    }
+
+    private static List<String> names(Message message) {
+        List<String> names = new ArrayList<>();
+        for (String name : message.getContent().split(",")) {
+            if (!name.isEmpty()) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    // ===== 花名册 =====
+
+    public boolean isRemoteUser(String username) {
+        return remoteUsers.containsKey(username);
+    }
+
+    public Set<String> getRemoteUsers() {
+        return new HashSet<>(remoteUsers.keySet());
+    }
+
+    public void shutdown() {
+        running = false;
+        closeQuietly(serverSocket);
+        for (PeerLink link : links) {
+            link.disconnect();
+        }
+        for (Socket socket : inbound.values()) {
+            closeQuietly(socket);
+        }
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(RECONNECT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // 忽略关闭时的异常
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,90 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 停止服务器时各会话的收尾结果
+ */
+public class DrainReport {
+    public enum Outcome {
+        DRAINED("已写完"),
+        DISCARDED("积压过多，只发送了告别消息"),
+        TIMED_OUT("超时，强制关闭"),
+        ALREADY_CLOSED("已断开");
+
+        private final String label;
+
+        Outcome(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /**
+     * 一个会话的结果：开始收尾时排队的消息数、被放弃的消息数
+     */
+    public static class Entry {
+        private final String username;
+        private final String address;
+        private final int pending;
+        private final int discarded;
+        private final Outcome outcome;
+
+        Entry(String username, String address, int pending, int discarded, Outcome outcome) {
+            this.username = username;
+            this.address = address;
+            this.pending = pending;
+            this.discarded = discarded;
+            this.outcome = outcome;
+        }
+
+        public String getUsername() { return username; }
+        public String getAddress() { return address; }
+        public int getPending() { return pending; }
+        public int getDiscarded() { return discarded; }
+        public Outcome getOutcome() { return outcome; }
+
+        public String toString() {
+            return username + "(" + address + ") 排队 " + pending + " 条，" + outcome.getLabel()
+                + (discarded > 0 ? "，放弃 " + discarded + " 条" : "");
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+    private long millis;
+
+    void add(Entry entry) {
+        entries.add(entry);
+    }
+
+    void setMillis(long millis) {
+        this.millis = millis;
+    }
+
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    public String getSummary() {
+        Map<Outcome, Integer> counts = new EnumMap<>(Outcome.class);
+        for (Entry entry : entries) {
+            counts.merge(entry.outcome, 1, Integer::sum);
+        }
+        StringBuilder summary = new StringBuilder("收尾 " + entries.size() + " 个会话，用时 " + millis + " 毫秒");
+        for (Map.Entry<Outcome, Integer> count : counts.entrySet()) {
+            summary.append("，").append(count.getKey().getLabel()).append(" ").append(count.getValue());
+        }
+        return summary.toString();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,66 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import common.Codec;
+import common.Message;
+
+/**
+ * 待发送的消息，每种编解码器只编码一次
+ * 广播时所有接收者共享同一份帧数据，只各自持有一个只读视图
+ */
+public class EncodedMessage {
+    private final Message message;
+    // 在线会话通常只用到一两种编解码器，线性查找即可
+    private Codec[] codecs = new Codec[2];
+    private ByteBuffer[] frames = new ByteBuffer[2];
+
+    public EncodedMessage(Message message) {
+        this.message = message;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    private synchronized ByteBuffer frame(Codec codec) throws IOException {
+        int i = 0;
+        for (; i < codecs.length && codecs[i] != null; i++) {
+            if (codecs[i] == codec) {
+                return frames[i];
+            }
+        }
+        if (i == codecs.length) {
+            codecs = Arrays.copyOf(codecs, i * 2);
+            frames = Arrays.copyOf(frames, i * 2);
+        }
+        codecs[i] = codec;
+        frames[i] = codec.encode(message);
+        return frames[i];
+    }
+
+    /**
+     * 编码后的帧长度（含长度前缀），用于连接内存预算
+     */
+    public int frameSize(Codec codec) throws IOException {
+        return frame(codec).remaining();
+    }
+
+    /**
+     * 共享帧数据的只读视图，拥有独立的读写位置
+     */
+    public ByteBuffer readOnlyFrame(Codec codec) throws IOException {
+        return frame(codec).asReadOnlyBuffer();
+    }
+
+    /**
+     * 直接从共享帧数据写入输出流，不做复制
+     */
+    public void writeTo(OutputStream out, Codec codec) throws IOException {
+        ByteBuffer frame = frame(codec);
+        out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+    }
+}
@@ -0,0 +1,45 @@
+package server;
+
+/**
+ * 服务器引擎类型，启动时选择
+ */
+public enum EngineType {
+    BLOCKING("阻塞式（每连接一个线程）"),
+    VIRTUAL("虚拟线程（每会话一个虚拟线程）"),
+    NIO("NIO（Selector事件循环）");
+
+    private final String description;
+
+    EngineType(String description) {
+        this.description = description;
+    }
+
+    public ServerEngine create(ChatProtocol protocol) {
+        switch (this) {
+            case VIRTUAL:
+                return BlockingServerEngine.virtualThreads(protocol);
+            case NIO:
+                return new NioServerEngine(protocol, NioServerEngine.defaultLoopCount());
+            default:
+                return new BlockingServerEngine(protocol);
+        }
+    }
+
+    /**
+     * 解析引擎名称，无法识别时使用阻塞式引擎
+     */
+    public static EngineType parse(String name) {
+        if (name != null) {
+            for (EngineType type : values()) {
+                if (type.name().equalsIgnoreCase(name.trim())) {
+                    return type;
+                }
+            }
+        }
+        return BLOCKING;
+    }
+
+    public String toString() {
+        return description;
+    }
+}
@@ -0,0 +1,73 @@
+package server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import common.Message;
+
+/**
+ * 心跳与空闲回收：所有会话共用一个时间轮，每个会话只有一个定时项
+ * 收到任何帧只记下当前刻度（一次 volatile 写），定时项到期时才检查：
+ * 空闲超过 INTERVAL_MILLIS 发送 PING，超过 TIMEOUT_MILLIS 直接关闭，否则按剩余时间重新登记
+ * 只有握手版本支持心跳的客户端才会被检查，旧版客户端不认识 PING
+ * 超时的会话交给回收线程关闭：关闭时要通知其他人下线，可能阻塞，不能卡住时间轮
+ */
+class Heartbeat {
+    // 均可通过 -Dchat.heartbeat.* 配置
+    static final long INTERVAL_MILLIS = Long.getLong("chat.heartbeat.intervalMillis", 2000);
+    static final long TIMEOUT_MILLIS = Long.getLong("chat.heartbeat.timeoutMillis", 6000);
+    private static final long TICK_MILLIS = 100;
+
+    private static final int REAPER_THREADS = 2;
+
+    private static final TimingWheel wheel = new TimingWheel("heartbeat-wheel", TICK_MILLIS, 512);
+    private static final AtomicInteger reaperCount = new AtomicInteger();
+    private static final ExecutorService reaper = Executors.newFixedThreadPool(REAPER_THREADS, r -> {
+        Thread thread = new Thread(r, "heartbeat-reaper-" + reaperCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    // 所有会话共用同一条 PING，每种编解码器只编码一次
+    private static final EncodedMessage PING = new EncodedMessage(new Message("PING", "系统", ""));
+
+    /**
+     * 当前刻度，会话收到帧时记录
+     */
+    static long now() {
+        return wheel.currentTick();
+    }
+
+    /**
+     * 开始检查一个会话，握手完成后调用
+     */
+    static void watch(ClientSession session) {
+        session.markRead();
+        wheel.schedule(() -> check(session), INTERVAL_MILLIS);
+    }
+
+    private static void check(ClientSession session) {
+        if (session.isClosed()) {
+            return;
+        }
+        long idle = (wheel.currentTick() - session.getLastReadTick()) * TICK_MILLIS;
+        if (idle >= TIMEOUT_MILLIS) {
+            ServerLog.info("心跳超时，断开 " + describe(session) + "（" + idle + " 毫秒无响应）");
+            ServerMetrics.forcedDisconnect();
+            reaper.execute(session::close);
+            return;
+        }
+        long delay;
+        if (idle >= INTERVAL_MILLIS) {
+            session.sendPing(PING);
+            delay = Math.min(INTERVAL_MILLIS, TIMEOUT_MILLIS - idle);
+        } else {
+            delay = INTERVAL_MILLIS - idle;
+        }
+        wheel.schedule(() -> check(session), delay);
+    }
+
+    private static String describe(ClientSession session) {
+        return session.getUsername() != null ? "用户 " + session.getUsername() : session.getRemoteAddress();
+    }
+}
\ No newline at end of file
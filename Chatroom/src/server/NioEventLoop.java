@@ -0,0 +1,144 @@
+package server;
+
+import java.io.IOException;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * NIO事件循环：一个线程 + 一个 Selector，负责其名下所有会话的读写
+ */
+class NioEventLoop implements Runnable {
+    // 标记所有事件循环线程：向其它循环上的会话发送时同样不能阻塞
+    private static final ThreadLocal<Boolean> LOOP_THREAD = ThreadLocal.withInitial(() -> false);
+
+    private final Selector selector;
+    private final ChatProtocol protocol;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakenUp = new AtomicBoolean(false);
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    NioEventLoop(ChatProtocol protocol, String name) throws IOException {
+        this.selector = Selector.open();
+        this.protocol = protocol;
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * 当前线程是否是任意一个事件循环线程
+     */
+    static boolean onAnyEventLoop() {
+        return LOOP_THREAD.get();
+    }
+
+    /**
+     * 在事件循环线程中执行任务，必要时唤醒 Selector
+     */
+    void execute(Runnable task) {
+        tasks.offer(task);
+        if (!inEventLoop() && wakenUp.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * 将新接受的连接注册到本事件循环
+     */
+    void register(SocketChannel channel) {
+        NioSession session = new NioSession(channel, this, protocol);
+        execute(() -> {
+            try {
+                session.attach(channel.register(selector, SelectionKey.OP_READ, session));
+            } catch (IOException e) {
+                session.close();
+            }
+        });
+    }
+
+    public void run() {
+        LOOP_THREAD.set(true);
+        try {
+            while (running) {
+                selector.select();
+                wakenUp.set(false);
+                runTasks();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    processKey(key);
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                ServerLog.error("事件循环异常退出", e);
+            }
+        } finally {
+            runTasks();
+            closeAll();
+        }
+    }
+
+    private void processKey(SelectionKey key) {
+        NioSession session = (NioSession) key.attachment();
+        try {
+            if (key.isValid() && key.isReadable()) {
+                session.onReadable();
+            }
+            if (key.isValid() && key.isWritable()) {
+                session.flush();
+            }
+        } catch (CancelledKeyException e) {
+            session.close();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                ServerMetrics.error();
+                ServerLog.error("事件循环任务出错", e);
+            }
+        }
+    }
+
+    private void closeAll() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof NioSession) {
+                    ((NioSession) key.attachment()).close();
+                }
+            }
+            selector.close();
+        } catch (IOException | ClosedSelectorException e) {
+            // 忽略关闭时的异常
+        }
+    }
+
+    /**
+     * 停止事件循环并关闭其上的所有会话
+     */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    void awaitTermination(long millis) throws InterruptedException {
+        thread.join(millis);
+    }
+}
@@ -0,0 +1,110 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.*;
+import java.util.Iterator;
+
+/**
+ * NIO引擎：一个接收线程 + 固定数量的事件循环线程，处理所有会话的读写
+ * 线程数不随连接数增长
+ */
+public class NioServerEngine implements ServerEngine {
+    private ChatProtocol protocol;
+    private NioEventLoop[] loops;
+    private ServerSocketChannel serverChannel;
+    private Selector acceptSelector;
+    private volatile boolean running;
+    private int nextLoop;
+
+    public NioServerEngine(ChatProtocol protocol, int loopCount) {
+        this.protocol = protocol;
+        this.loops = new NioEventLoop[loopCount];
+    }
+
+    /**
+     * 默认事件循环数，可通过 -Dchat.nio.loops 指定
+     */
+    public static int defaultLoopCount() {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Integer.getInteger("chat.nio.loops", Math.min(cpus, 4)));
+    }
+
+    public void bind(InetAddress address, int port) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(address, port), 50);
+        serverChannel.configureBlocking(false);
+        acceptSelector = Selector.open();
+        serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+    }
+
+    public void serve() throws IOException {
+        running = true;
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new NioEventLoop(protocol, "nio-loop-" + i);
+            loops[i].start();
+        }
+        try {
+            while (running) {
+                acceptSelector.select();
+                Iterator<SelectionKey> keys = acceptSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    keys.next();
+                    keys.remove();
+                    acceptAll();
+                }
+            }
+        } catch (ClosedSelectorException | ClosedChannelException e) {
+            // 监听已关闭
+        } finally {
+            acceptSelector.close();
+        }
+    }
+
+    private void acceptAll() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            ServerLog.info("收到来自 " + channel.socket().getInetAddress().getHostAddress() + " 的连接");
+            // 轮询分配到各个事件循环
+            loops[nextLoop].register(channel);
+            nextLoop = (nextLoop + 1) % loops.length;
+        }
+    }
+
+    public void closeListener() {
+        running = false;
+        try {
+            if (serverChannel != null && serverChannel.isOpen()) {
+                serverChannel.close();
+                ServerLog.info("ServerSocketChannel 已关闭");
+            }
+        } catch (IOException e) {
+            ServerLog.warn("关闭监听端口时发生错误: " + e.getMessage());
+        }
+        if (acceptSelector != null) {
+            acceptSelector.wakeup();
+        }
+    }
+
+    public void shutdown() {
+        closeListener();
+        for (NioEventLoop loop : loops) {
+            if (loop != null) {
+                loop.shutdown();
+            }
+        }
+        try {
+            for (NioEventLoop loop : loops) {
+                if (loop != null) {
+                    loop.awaitTermination(5000);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ServerLog.info("事件循环已关闭");
+    }
+}
@@ -0,0 +1,241 @@
+package server;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import common.FrameCodec;
+import common.Handshake;
+import common.SerializedCodec;
+
+/**
+ * 基于 SocketChannel 的非阻塞会话
+ * 读写都在所属的 NioEventLoop 线程中完成，其它线程发送时只入队
+ */
+class NioSession extends ClientSession {
+    private static final int INITIAL_READ_BUFFER = 8192;
+
+    private final SocketChannel channel;
+    private final NioEventLoop loop;
+    private final ChatProtocol protocol;
+    private ByteBuffer current; // 正在写出的帧
+    private ByteBuffer handshakeReply; // 握手应答不经过发送队列，写完时不计入出队统计
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+    private SelectionKey key;
+    private boolean handshakeDone;
+    private boolean readPaused;
+
+    NioSession(SocketChannel channel, NioEventLoop loop, ChatProtocol protocol) {
+        super(protocol);
+        this.channel = channel;
+        this.loop = loop;
+        this.protocol = protocol;
+    }
+
+    void attach(SelectionKey key) {
+        this.key = key;
+    }
+
+    // 任何事件循环线程都不能阻塞，否则会卡住该循环上的所有会话，即使接收者在另一个循环上
+    protected boolean mayBlock() {
+        return !NioEventLoop.onAnyEventLoop();
+    }
+
+    protected void scheduleWrite() {
+        if (loop.inEventLoop()) {
+            flush();
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(() -> {
+                flushScheduled.set(false);
+                flush();
+            });
+        }
+    }
+
+    /**
+     * 尽可能多地写出待发送数据，写不完时关注 OP_WRITE
+     */
+    void flush() {
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        try {
+            if (handshakeReply != null) {
+                channel.write(handshakeReply);
+                if (handshakeReply.hasRemaining()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                handshakeReply = null;
+            }
+            while (true) {
+                if (current == null) {
+                    EncodedMessage message = outbound.poll();
+                    if (message == null) {
+                        break;
+                    }
+                    current = message.readOnlyFrame(getCodec());
+                }
+                channel.write(current);
+                if (current.hasRemaining()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return; // 内核发送缓冲区已满
+                }
+                current = null;
+                outbound.written();
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            resumeReading();
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        onDrained();
+    }
+
+    /**
+     * 读取数据并处理其中的完整帧
+     */
+    void onReadable() {
+        try {
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                close(); // 客户端关闭连接
+                return;
+            }
+            ServerMetrics.bytesIn(read);
+            processFrames();
+        } catch (IOException e) {
+            if (!isClosed()) {
+                ServerMetrics.error();
+                ServerLog.warn("客户端连接异常: " + e.getMessage());
+            }
+            close();
+        }
+    }
+
+    /**
+     * 按长度前缀拆帧；客户端来不及接收自己的消息时暂停读取，剩余数据留到恢复后处理
+     */
+    private void processFrames() throws IOException {
+        readBuffer.flip();
+        if (!handshakeDone && !readHandshake()) {
+            readBuffer.compact();
+            return; // 握手包不完整
+        }
+        int needed = 0;
+        while (readBuffer.remaining() >= FrameCodec.HEADER_SIZE) {
+            if (outbound.isAboveLowWater()) {
+                pauseReading();
+                break;
+            }
+            int start = readBuffer.position();
+            int length = readBuffer.getInt(start);
+            FrameCodec.checkLength(length);
+            if (readBuffer.remaining() < FrameCodec.HEADER_SIZE + length) {
+                needed = FrameCodec.HEADER_SIZE + length;
+                break; // 帧不完整，等待更多数据
+            }
+            ByteBuffer payload = readBuffer.slice(start + FrameCodec.HEADER_SIZE, length);
+            readBuffer.position(start + FrameCodec.HEADER_SIZE + length);
+            if (!protocol.handle(this, getCodec().decode(payload))) {
+                close(); // 客户端登出
+                return;
+            }
+            if (isClosed()) {
+                return; // 处理过程中会话被关闭，缓冲区里剩下的帧不再处理
+            }
+        }
+        readBuffer.compact();
+        if (needed > readBuffer.capacity()) {
+            resizeReadBuffer(needed);
+        } else if (readBuffer.capacity() > INITIAL_READ_BUFFER && readBuffer.position() <= INITIAL_READ_BUFFER) {
+            // 大帧处理完后收缩，空闲连接只保留初始大小的读缓冲区
+            resizeReadBuffer(INITIAL_READ_BUFFER);
+        }
+    }
+
+    private void resizeReadBuffer(int capacity) {
+        ByteBuffer resized = ByteBuffer.allocate(capacity);
+        readBuffer.flip();
+        resized.put(readBuffer);
+        readBuffer = resized;
+    }
+
+    protected int inboundBufferBytes() {
+        return readBuffer.capacity();
+    }
+
+    private void pauseReading() {
+        if (!readPaused && key.isValid()) {
+            readPaused = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    private void resumeReading() throws IOException {
+        if (readPaused && key.isValid() && !outbound.isAboveLowWater()) {
+            readPaused = false;
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            processFrames(); // 处理暂停期间已缓冲的数据
+        }
+    }
+
+    /**
+     * 读取握手包；旧版客户端直接发送帧，不消耗数据并按Java序列化处理
+     * @return false 表示数据不足，需要继续等待
+     */
+    private boolean readHandshake() throws IOException {
+        if (readBuffer.remaining() < FrameCodec.HEADER_SIZE) {
+            return false;
+        }
+        int first = readBuffer.getInt(readBuffer.position());
+        Handshake.rejectObjectStream(first);
+        if (first != Handshake.MAGIC) {
+            setCodec(SerializedCodec.INSTANCE);
+        } else {
+            if (readBuffer.remaining() < Handshake.HELLO_SIZE) {
+                return false;
+            }
+            readBuffer.getInt();
+            byte version = readBuffer.get();
+            setCodec(Handshake.negotiate(readBuffer.get()));
+            handshakeReply = Handshake.packet(getCodec());
+            flush();
+            if (version >= Handshake.HEARTBEAT_VERSION) {
+                Heartbeat.watch(this);
+            }
+        }
+        handshakeDone = true;
+        return true;
+    }
+
+    public String getRemoteAddress() {
+        Socket socket = channel.socket();
+        return socket.getInetAddress() != null ? socket.getInetAddress().getHostAddress() : "未知";
+    }
+
+    protected void closeTransport() {
+        if (loop.inEventLoop()) {
+            closeChannel();
+        } else {
+            loop.execute(this::closeChannel);
+        }
+    }
+
+    // 直接关闭，不再写出排队的消息：需要先送达的通知（如踢出原因）走 disconnect，写完后才关闭
+    private void closeChannel() {
+        try {
+            if (key != null) {
+                key.cancel();
+            }
+            channel.close();
+        } catch (IOException e) {
+            // 忽略关闭时的异常
+        }
+    }
+}
@@ -0,0 +1,430 @@
+package server;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 会话的有界发送队列：任意线程入队，只由该会话唯一的写线程出队
+ * 一个慢速客户端只会填满自己的队列，不会拖慢其它用户
+ * 同时限制消息条数和字节数，保证每个连接占用的内存有上限
+ * 文件块走单独的低优先级通道：只有聊天消息全部写出后才写下一个文件块，
+ * 大文件传输最多让聊天消息等待一个文件块的时间
+ * 文件块通道按传输编号分别限额：每个传输最多排队 BULK_CAPACITY 块，同时最多 BULK_MAX_TRANSFERS 个传输，
+ * 文件块不占用聊天消息的字节预算
+ */
+public class OutboundQueue {
+    // 可通过 -Dchat.outbound.capacity / -Dchat.outbound.maxBytes / -Dchat.outbound.policy / -Dchat.outbound.blockMillis 配置
+    static final int DEFAULT_CAPACITY = Integer.getInteger("chat.outbound.capacity", 1024);
+    static final long DEFAULT_MAX_BYTES = Long.getLong("chat.outbound.maxBytes", 4L << 20);
+    static final OverflowPolicy DEFAULT_POLICY = OverflowPolicy.parse(System.getProperty("chat.outbound.policy"));
+    static final long BLOCK_MILLIS = Long.getLong("chat.outbound.blockMillis", 2000);
+    // 每个传输在文件块通道中最多排队的块数（发送方窗口的两倍），可通过 -Dchat.outbound.bulkCapacity 配置
+    static final int BULK_CAPACITY = Integer.getInteger("chat.outbound.bulkCapacity", 16);
+    // 同一接收者同时接收的传输数上限，可通过 -Dchat.outbound.bulkMaxTransfers 配置
+    static final int BULK_MAX_TRANSFERS = Integer.getInteger("chat.outbound.bulkMaxTransfers", 8);
+
+    /**
+     * 文件块入队结果
+     */
+    public enum BulkResult {
+        ACCEPTED,
+        WINDOW_EXCEEDED,    // 该传输排队的块超过限额，发送方没有遵守窗口
+        TOO_MANY_TRANSFERS  // 接收者同时进行的传输过多
+    }
+
+    // 文件块通道中的一项
+    private static final class BulkItem {
+        final EncodedMessage message;
+        final int bytes;
+        final String transfer;
+
+        BulkItem(EncodedMessage message, int bytes, String transfer) {
+            this.message = message;
+            this.bytes = bytes;
+            this.transfer = transfer;
+        }
+    }
+
+    // 环形数组，容量固定，入队不产生额外对象
+    private final EncodedMessage[] items;
+    private final int[] sizes;
+    private final long[] enqueued; // 入队时刻，用于统计写出延迟
+    private int head;
+    private int count;
+    private final int capacity;
+    private final long maxBytes;
+    private final OverflowPolicy policy;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+    private final Condition belowLowWater = lock.newCondition();
+    private final ArrayDeque<BulkItem> bulk = new ArrayDeque<>();
+    private final Map<String, Integer> bulkPerTransfer = new HashMap<>(); // 传输编号 → 排队块数
+    private long bulkBytes;
+    private int inFlightBytes;  // 写线程已取出但尚未写完的字节数，0 表示没有
+    private long inFlightSince; // 已取出消息的入队时刻，文件块为 0
+    private boolean inFlight;
+    private long queuedBytes;
+    private long dropped;
+    private int highWater;
+
+    public OutboundQueue() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_BYTES, DEFAULT_POLICY);
+    }
+
+    public OutboundQueue(int capacity, long maxBytes, OverflowPolicy policy) {
+        this.capacity = Math.max(1, capacity);
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+        this.items = new EncodedMessage[this.capacity];
+        this.sizes = new int[this.capacity];
+        this.enqueued = new long[this.capacity];
+    }
+
+    /**
+     * 入队一条消息
+     * @param bytes 消息编码后的字节数，计入该连接的内存预算
+     * @param mayBlock 调用线程是否允许阻塞（事件循环线程不允许）
+     * @return false 表示队列已满且策略要求断开该客户端
+     */
+    public boolean offer(EncodedMessage message, int bytes, boolean mayBlock) {
+        lock.lock();
+        try {
+            if (isFull(bytes)) {
+                switch (policy) {
+                    case DROP_OLDEST:
+                        while (isFull(bytes)) {
+                            removeFirst();
+                            dropped++;
+                            ServerMetrics.dropped(1);
+                        }
+                        break;
+                    case BLOCK:
+                        if (mayBlock && awaitNotFull(bytes)) {
+                            break;
+                        }
+                        dropped++;
+                        ServerMetrics.dropped(1);
+                        return false;
+                    default:
+                        dropped++;
+                        ServerMetrics.dropped(1);
+                        return false;
+                }
+            }
+            addLast(message, bytes);
+            highWater = Math.max(highWater, count);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 文件块入低优先级通道，从不阻塞
+     * 遵守窗口的发送方在途块数不超过窗口，所以只有单个传输超出限额才说明发送过快，
+     * 多个传输同时发给一个慢速接收者不会互相挤占
+     * @param transfer 传输编号
+     */
+    public BulkResult offerBulk(EncodedMessage message, int bytes, String transfer) {
+        lock.lock();
+        try {
+            Integer queued = bulkPerTransfer.get(transfer);
+            BulkResult result = queued == null && bulkPerTransfer.size() >= BULK_MAX_TRANSFERS ? BulkResult.TOO_MANY_TRANSFERS
+                : queued != null && queued >= BULK_CAPACITY ? BulkResult.WINDOW_EXCEEDED : BulkResult.ACCEPTED;
+            if (result != BulkResult.ACCEPTED) {
+                dropped++;
+                ServerMetrics.dropped(1);
+                return result;
+            }
+            bulk.addLast(new BulkItem(message, bytes, transfer));
+            bulkPerTransfer.merge(transfer, 1, Integer::sum);
+            bulkBytes += bytes;
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private BulkItem removeFirstBulk() {
+        BulkItem item = bulk.removeFirst();
+        bulkBytes -= item.bytes;
+        bulkPerTransfer.computeIfPresent(item.transfer, (transfer, queued) -> queued > 1 ? queued - 1 : null);
+        return item;
+    }
+
+    // 队列为空时总能放入一条，避免超过字节预算的单条消息永远发不出去
+    private boolean isFull(int bytes) {
+        return count >= capacity || (count > 0 && queuedBytes + inFlightBytes + bytes > maxBytes);
+    }
+
+    private void addLast(EncodedMessage message, int bytes) {
+        int tail = (head + count) % capacity;
+        items[tail] = message;
+        sizes[tail] = bytes;
+        enqueued[tail] = System.nanoTime();
+        count++;
+        queuedBytes += bytes;
+    }
+
+    private EncodedMessage removeFirst() {
+        EncodedMessage message = items[head];
+        items[head] = null;
+        queuedBytes -= sizes[head];
+        head = (head + 1) % capacity;
+        count--;
+        return message;
+    }
+
+    private void removeAll() {
+        Arrays.fill(items, null);
+        head = 0;
+        count = 0;
+        bulk.clear();
+        bulkPerTransfer.clear();
+        bulkBytes = 0;
+        queuedBytes = 0;
+    }
+
+    private boolean awaitNotFull(int bytes) {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(BLOCK_MILLIS);
+        try {
+            while (isFull(bytes)) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 写线程取出下一条消息，聊天消息优先于文件块；写完后必须调用 written()
+     */
+    public EncodedMessage poll() {
+        lock.lock();
+        try {
+            if (count == 0) {
+                if (bulk.isEmpty()) {
+                    return null;
+                }
+                BulkItem item = removeFirstBulk();
+                inFlightBytes = item.bytes;
+                inFlightSince = 0;
+                inFlight = true;
+                return item.message;
+            }
+            inFlightBytes = sizes[head];
+            inFlightSince = enqueued[head];
+            EncodedMessage message = removeFirst();
+            inFlight = true;
+            notFull.signal();
+            if (count == getLowWater()) {
+                belowLowWater.signalAll();
+            }
+            return message;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 写线程已写完取出的消息
+     */
+    public void written() {
+        lock.lock();
+        try {
+            ServerMetrics.messageOut(inFlightBytes, inFlightSince > 0 ? System.nanoTime() - inFlightSince : 0);
+            inFlight = false;
+            inFlightBytes = 0;
+            notFull.signal();
+            if (count == 0 && bulk.isEmpty()) {
+                drained.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 清空队列并放入一条消息（如断开原因），不受容量限制
+     */
+    public void replaceAll(EncodedMessage message, int bytes) {
+        lock.lock();
+        try {
+            int discarded = count + bulk.size(); // 聊天消息和文件块都计入丢弃数
+            dropped += discarded;
+            ServerMetrics.dropped(discarded);
+            removeAll();
+            addLast(message, bytes);
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 丢弃文件块通道中尚未写出的文件块
+     * @return 丢弃的条数
+     */
+    public int discardBulk() {
+        lock.lock();
+        try {
+            int discarded = bulk.size();
+            bulk.clear();
+            bulkPerTransfer.clear();
+            bulkBytes = 0;
+            dropped += discarded;
+            ServerMetrics.dropped(discarded);
+            if (count == 0 && !inFlight) {
+                drained.signalAll();
+            }
+            return discarded;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 会话关闭时释放排队的消息并唤醒所有等待者
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            removeAll();
+            inFlight = false;
+            inFlightBytes = 0;
+            notFull.signalAll();
+            drained.signalAll();
+            belowLowWater.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 等待队列中的消息全部写出
+     * @return false 表示超时
+     */
+    public boolean awaitDrained(long millis) {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+        lock.lock();
+        try {
+            while (count > 0 || !bulk.isEmpty() || inFlight) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = drained.awaitNanos(nanos);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 低水位：积压超过它时暂停读取该客户端的请求，让TCP反压发送方
+     */
+    public int getLowWater() {
+        return capacity / 2;
+    }
+
+    public boolean isAboveLowWater() {
+        return size() > getLowWater();
+    }
+
+    /**
+     * 等待积压降到低水位以下
+     * @return false 表示超时
+     */
+    public boolean awaitBelowLowWater(long millis) {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+        lock.lock();
+        try {
+            while (count > getLowWater()) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = belowLowWater.awaitNanos(nanos);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return count == 0 && bulk.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 排队中和正在写出的字节数
+     */
+    public long getBufferedBytes() {
+        lock.lock();
+        try {
+            return queuedBytes + bulkBytes + inFlightBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getHighWater() {
+        lock.lock();
+        try {
+            return highWater;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+}
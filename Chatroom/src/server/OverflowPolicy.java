@@ -0,0 +1,34 @@
+package server;
+
+/**
+ * 会话发送队列满时的处理策略
+ */
+public enum OverflowPolicy {
+    BLOCK("阻塞发送方（超时后断开）"),
+    DROP_OLDEST("丢弃最早的消息"),
+    DISCONNECT("断开慢速客户端");
+
+    private final String description;
+
+    OverflowPolicy(String description) {
+        this.description = description;
+    }
+
+    /**
+     * 解析策略名称，无法识别时断开慢速客户端
+     */
+    public static OverflowPolicy parse(String name) {
+        if (name != null) {
+            for (OverflowPolicy policy : values()) {
+                if (policy.name().equalsIgnoreCase(name.trim())) {
+                    return policy;
+                }
+            }
+        }
+        return DISCONNECT;
+    }
+
+    public String toString() {
+        return description;
+    }
+}
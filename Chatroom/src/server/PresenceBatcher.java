@@ -0,0 +1,93 @@
+package server;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 上线/下线事件合并：在一个短时间窗口内收集所有变化，
+ * 合并成一条花名册增量和一条系统通知，避免集中登录时的广播风暴
+ */
+class PresenceBatcher {
+    // 合并窗口，可通过 -Dchat.presence.windowMillis 配置，0 表示不合并
+    static final long DEFAULT_WINDOW_MILLIS = Long.getLong("chat.presence.windowMillis", 100);
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "presence-batcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final UserManager userManager;
+    private final long windowMillis;
+    private final Object lock = new Object();
+    private Map<String, ClientSession> joins = new LinkedHashMap<>();
+    private Set<String> leaves = new LinkedHashSet<>();
+    private boolean scheduled;
+
+    PresenceBatcher(UserManager userManager, long windowMillis) {
+        this.userManager = userManager;
+        this.windowMillis = windowMillis;
+    }
+
+    void joined(ClientSession session) {
+        synchronized (lock) {
+            joins.put(session.getUsername(), session);
+        }
+        schedule();
+    }
+
+    // 集群中其它节点的用户上线，没有本地会话
+    void remoteJoined(String username) {
+        synchronized (lock) {
+            joins.put(username, null);
+        }
+        schedule();
+    }
+
+    void left(String username) {
+        synchronized (lock) {
+            // 窗口内上线又下线的用户，其他人根本不需要知道
+            if (!joins.containsKey(username)) {
+                leaves.add(username);
+            } else {
+                joins.remove(username);
+            }
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        if (windowMillis <= 0) {
+            flush();
+            return;
+        }
+        synchronized (lock) {
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        timer.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 发布窗口内积累的变化
+     */
+    void flush() {
+        Map<String, ClientSession> joined;
+        Collection<String> left;
+        synchronized (lock) {
+            scheduled = false;
+            if (joins.isEmpty() && leaves.isEmpty()) {
+                return;
+            }
+            joined = joins;
+            left = leaves;
+            joins = new LinkedHashMap<>();
+            leaves = new LinkedHashSet<>();
+        }
+        userManager.publishPresence(joined, left);
+    }
+}
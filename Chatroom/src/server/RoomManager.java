@@ -0,0 +1,107 @@
+package server;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import common.Message;
+
+/**
+ * 房间索引：房间名 -> 成员会话集合
+ * 房间内广播只遍历该房间的成员；加入/退出只锁住对应房间所在的哈希桶，没有全局锁
+ */
+public class RoomManager {
+    public static final String LOBBY = "大厅";
+    public static final int MAX_NAME_LENGTH = 32;
+
+    private final ConcurrentHashMap<String, Set<ClientSession>> rooms = new ConcurrentHashMap<>();
+
+    /**
+     * 检查房间名是否合法
+     */
+    public static boolean isValidName(String room) {
+        return room != null && !room.trim().isEmpty() && room.length() <= MAX_NAME_LENGTH && room.indexOf(',') < 0;
+    }
+
+    /**
+     * 加入房间
+     * 先记入会话自己的房间列表再加入成员集合，加入后再检查会话是否已关闭：
+     * 关闭时 leaveAll 按会话的房间列表退出，这样无论关闭发生在哪一步，已关闭的会话都不会留在房间里
+     * @return false 表示会话已关闭，没有加入
+     */
+    public boolean join(String room, ClientSession session) {
+        session.joinedRoom(room);
+        // 在 compute 中加入，避免与删除空房间并发时加入到已被删除的集合
+        rooms.compute(room, (name, members) -> {
+            if (members == null) {
+                members = ConcurrentHashMap.newKeySet();
+            }
+            members.add(session);
+            return members;
+        });
+        if (session.isClosed()) {
+            leave(room, session);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 退出房间，房间空了就删除
+     * @return false 表示本来就不在该房间
+     */
+    public boolean leave(String room, ClientSession session) {
+        boolean[] removed = new boolean[1];
+        rooms.computeIfPresent(room, (name, members) -> {
+            removed[0] = members.remove(session);
+            return members.isEmpty() ? null : members;
+        });
+        session.leftRoom(room);
+        return removed[0];
+    }
+
+    /**
+     * 会话断开时退出所有房间
+     */
+    public void leaveAll(ClientSession session) {
+        for (String room : session.getRooms()) {
+            leave(room, session);
+        }
+    }
+
+    public boolean isMember(String room, ClientSession session) {
+        Set<ClientSession> members = rooms.get(room);
+        return members != null && members.contains(session);
+    }
+
+    /**
+     * 向房间成员广播，只编码一次
+     */
+    public void broadcast(String room, Message message) {
+        Set<ClientSession> members = rooms.get(room);
+        if (members == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        EncodedMessage encoded = new EncodedMessage(message);
+        for (ClientSession session : members) {
+            try {
+                session.send(encoded);
+            } catch (IOException e) {
+                // 连接已断开，会话关闭时会退出房间
+            }
+        }
+        ServerMetrics.fanOut(System.nanoTime() - start);
+    }
+
+    /**
+     * 各房间人数，按房间名排序
+     */
+    public Map<String, Integer> getRoomSizes() {
+        Map<String, Integer> sizes = new TreeMap<>();
+        for (Map.Entry<String, Set<ClientSession>> entry : rooms.entrySet()) {
+            sizes.put(entry.getKey(), entry.getValue().size());
+        }
+        return sizes;
+    }
+}
@@ -0,0 +1,128 @@
+package server;
+
+import java.util.*;
+
+import javax.swing.AbstractListModel;
+
+/**
+ * 管理界面的在线用户列表：按名字排序，可按子串过滤，只能在事件分发线程上修改
+ * 少量变化逐条插入、删除并只通知变化的行；大批变化时整体重建，避免逐行通知的开销
+ */
+public class RosterListModel extends AbstractListModel<String> {
+    // 一批变化超过这个数量时整体重建
+    static final int BULK_THRESHOLD = 256;
+    private static final Comparator<String> ORDER = String.CASE_INSENSITIVE_ORDER.thenComparing(Comparator.naturalOrder());
+
+    private final List<String> all = new ArrayList<>();
+    private List<String> visible = all;
+    private String filter = "";
+    private int shown; // 上次通知给列表的行数
+
+    public int getSize() {
+        return visible.size();
+    }
+
+    public String getElementAt(int index) {
+        return visible.get(index);
+    }
+
+    // 全部在线用户数（不受过滤影响）
+    public int getTotalSize() {
+        return all.size();
+    }
+
+    /**
+     * 用完整名单替换当前内容
+     */
+    public void reset(Collection<String> names) {
+        Set<String> sorted = new TreeSet<>(ORDER);
+        sorted.addAll(names);
+        all.clear();
+        all.addAll(sorted);
+        rebuild();
+    }
+
+    /**
+     * 应用一批变化，先处理下线再处理上线
+     */
+    public void apply(Collection<String> joined, Collection<String> left) {
+        if (joined.size() + left.size() > BULK_THRESHOLD) {
+            Set<String> names = new HashSet<>(all);
+            names.removeAll(left);
+            names.addAll(joined);
+            all.clear();
+            all.addAll(names);
+            all.sort(ORDER);
+            rebuild();
+            return;
+        }
+        for (String name : left) {
+            int index = Collections.binarySearch(all, name, ORDER);
+            if (index >= 0) {
+                all.remove(index);
+                if (visible != all) {
+                    index = Collections.binarySearch(visible, name, ORDER);
+                }
+                if (index >= 0 && matches(name)) {
+                    if (visible != all) {
+                        visible.remove(index);
+                    }
+                    shown--;
+                    fireIntervalRemoved(this, index, index);
+                }
+            }
+        }
+        for (String name : joined) {
+            int index = Collections.binarySearch(all, name, ORDER);
+            if (index < 0) {
+                index = -index - 1;
+                all.add(index, name);
+                if (visible != all && matches(name)) {
+                    index = -Collections.binarySearch(visible, name, ORDER) - 1;
+                    visible.add(index, name);
+                }
+                if (matches(name)) {
+                    shown++;
+                    fireIntervalAdded(this, index, index);
+                }
+            }
+        }
+    }
+
+    /**
+     * 只显示名字中包含 text 的用户（不区分大小写），空串表示不过滤
+     */
+    public void setFilter(String text) {
+        String normalized = text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+        if (!normalized.equals(filter)) {
+            filter = normalized;
+            rebuild();
+        }
+    }
+
+    private boolean matches(String name) {
+        return filter.isEmpty() || name.toLowerCase(Locale.ROOT).contains(filter);
+    }
+
+    // 重新计算可见列表，并通知列表整体替换
+    private void rebuild() {
+        if (filter.isEmpty()) {
+            visible = all;
+        } else {
+            List<String> matched = new ArrayList<>();
+            for (String name : all) {
+                if (matches(name)) {
+                    matched.add(name);
+                }
+            }
+            visible = matched;
+        }
+        if (shown > 0) {
+            fireIntervalRemoved(this, 0, shown - 1);
+        }
+        shown = visible.size();
+        if (shown > 0) {
+            fireIntervalAdded(this, 0, visible.size() - 1);
+        }
+    }
+}
\ No newline at end of file
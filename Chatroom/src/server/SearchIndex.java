@@ -0,0 +1,249 @@
+package server;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import common.Message;
+import common.SearchQuery;
+
+/**
+ * 聊天记录的增量倒排索引
+ * 中日韩文字按单字和相邻二字切分，其它文字按字母数字连续段切分并转小写；
+ * 发送者也作为一个词项索引，按发送者过滤时与关键词一起求交集
+ * 超过容量时丢弃最老的四分之一
+ */
+public class SearchIndex {
+    static final int MAX_DOCS = Integer.getInteger("chat.search.maxDocs", 1_000_000);
+    private static final String SENDER_PREFIX = "\u0001";
+
+    /**
+     * 一页搜索结果及符合条件的总数
+     */
+    public static class Result {
+        private final List<Message> hits;
+        private final int total;
+
+        Result(List<Message> hits, int total) {
+            this.hits = hits;
+            this.total = total;
+        }
+
+        public List<Message> getHits() { return hits; }
+        public int getTotal() { return total; }
+    }
+
+    // 文档号递增的倒排表
+    private static class Postings {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        boolean contains(int id) {
+            return Arrays.binarySearch(ids, 0, size, id) >= 0;
+        }
+
+        // 删除小于 base 的文档号
+        void dropBefore(int base) {
+            int index = Arrays.binarySearch(ids, 0, size, base);
+            int from = index >= 0 ? index : -index - 1;
+            System.arraycopy(ids, from, ids, 0, size - from);
+            size -= from;
+        }
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Postings> postings = new HashMap<>();
+    // 文档按加入顺序存放，文档号 = base + 下标
+    private int base;
+    private int count;
+    private long[] seqs = new long[1024];
+    private long[] times = new long[1024];
+    private String[] senders = new String[1024];
+    private String[] rooms = new String[1024];
+    private String[] contents = new String[1024];
+
+    /**
+     * 索引一条聊天消息
+     */
+    public void add(Message message) {
+        Set<String> terms = new HashSet<>(tokenize(message.getContent()));
+        terms.add(SENDER_PREFIX + message.getSender());
+        lock.writeLock().lock();
+        try {
+            if (count == MAX_DOCS) {
+                dropOldest(Math.max(1, MAX_DOCS / 4));
+            }
+            if (count == seqs.length) {
+                grow();
+            }
+            int id = base + count;
+            seqs[count] = message.getSeq();
+            times[count] = message.getTime();
+            senders[count] = message.getSender();
+            rooms[count] = message.getTarget() != null ? message.getTarget() : RoomManager.LOBBY;
+            contents[count] = message.getContent();
+            count++;
+            for (String term : terms) {
+                postings.computeIfAbsent(term, t -> new Postings()).add(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void grow() {
+        int capacity = (int) Math.min((long) seqs.length * 2, MAX_DOCS);
+        seqs = Arrays.copyOf(seqs, capacity);
+        times = Arrays.copyOf(times, capacity);
+        senders = Arrays.copyOf(senders, capacity);
+        rooms = Arrays.copyOf(rooms, capacity);
+        contents = Arrays.copyOf(contents, capacity);
+    }
+
+    private void dropOldest(int n) {
+        System.arraycopy(seqs, n, seqs, 0, count - n);
+        System.arraycopy(times, n, times, 0, count - n);
+        System.arraycopy(senders, n, senders, 0, count - n);
+        System.arraycopy(rooms, n, rooms, 0, count - n);
+        System.arraycopy(contents, n, contents, 0, count - n);
+        Arrays.fill(senders, count - n, count, null);
+        Arrays.fill(rooms, count - n, count, null);
+        Arrays.fill(contents, count - n, count, null);
+        count -= n;
+        base += n;
+        Iterator<Postings> it = postings.values().iterator();
+        while (it.hasNext()) {
+            Postings list = it.next();
+            list.dropBefore(base);
+            if (list.size == 0) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * 搜索，结果按时间从新到旧排列，只返回 visibleRooms 中房间的消息
+     */
+    public Result search(SearchQuery query, Set<String> visibleRooms) {
+        Set<String> terms = new LinkedHashSet<>(tokenize(query.getText()));
+        if (!query.getSender().isEmpty()) {
+            terms.add(SENDER_PREFIX + query.getSender());
+        }
+        List<Message> hits = new ArrayList<>();
+        if (terms.isEmpty()) {
+            return new Result(hits, 0);
+        }
+        int skip = query.getPage() * SearchQuery.PAGE_SIZE;
+        int total = 0;
+        lock.readLock().lock();
+        try {
+            List<Postings> lists = new ArrayList<>();
+            for (String term : terms) {
+                Postings list = postings.get(term);
+                if (list == null) {
+                    return new Result(hits, 0);
+                }
+                lists.add(list);
+            }
+            // 从最短的倒排表出发，在其余表中二分查找
+            lists.sort(Comparator.comparingInt(list -> list.size));
+            Postings shortest = lists.get(0);
+            for (int i = shortest.size - 1; i >= 0; i--) {
+                int id = shortest.ids[i];
+                int index = id - base;
+                if (!matches(lists, id, index, query, visibleRooms)) {
+                    continue;
+                }
+                if (total >= skip && hits.size() < SearchQuery.PAGE_SIZE) {
+                    Message hit = new Message("SEARCH_HIT", senders[index], contents[index], times[index]);
+                    hit.setSeq(seqs[index]);
+                    hit.setTarget(rooms[index]);
+                    hits.add(hit);
+                }
+                total++;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new Result(hits, total);
+    }
+
+    private boolean matches(List<Postings> lists, int id, int index, SearchQuery query, Set<String> visibleRooms) {
+        long time = times[index];
+        if ((query.getFrom() > 0 && time < query.getFrom()) || (query.getTo() > 0 && time > query.getTo())) {
+            return false;
+        }
+        if (!visibleRooms.contains(rooms[index])) {
+            return false;
+        }
+        for (int i = 1; i < lists.size(); i++) {
+            if (!lists.get(i).contains(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 已索引的消息条数
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 切分词项：中日韩文字连续段产生单字和二字词，其它字母数字连续段作为一个词
+     */
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+        int i = 0;
+        int length = text.length();
+        while (i < length) {
+            int cp = text.codePointAt(i);
+            if (isCjk(cp)) {
+                int start = i;
+                while (i < length && isCjk(text.codePointAt(i))) {
+                    i += Character.charCount(text.codePointAt(i));
+                }
+                addCjk(terms, text.substring(start, i));
+            } else if (Character.isLetterOrDigit(cp)) {
+                int start = i;
+                while (i < length && !isCjk(text.codePointAt(i)) && Character.isLetterOrDigit(text.codePointAt(i))) {
+                    i += Character.charCount(text.codePointAt(i));
+                }
+                terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+            } else {
+                i += Character.charCount(cp);
+            }
+        }
+        return terms;
+    }
+
+    private static void addCjk(List<String> terms, String run) {
+        int[] cps = run.codePoints().toArray();
+        for (int k = 0; k < cps.length; k++) {
+            terms.add(new String(cps, k, 1));
+            if (k + 1 < cps.length) {
+                terms.add(new String(cps, k, 2));
+            }
+        }
+    }
+
+    private static boolean isCjk(int cp) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(cp);
+        return script == Character.UnicodeScript.HAN || script == Character.UnicodeScript.HIRAGANA
+            || script == Character.UnicodeScript.KATAKANA || script == Character.UnicodeScript.HANGUL;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,29 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+/**
+ * 服务器传输引擎：负责监听端口、接受连接并驱动会话读写
+ */
+public interface ServerEngine {
+    /**
+     * 绑定监听地址，address 为 null 时绑定所有网络接口
+     */
+    void bind(InetAddress address, int port) throws IOException;
+
+    /**
+     * 运行事件循环，阻塞直到引擎被关闭
+     */
+    void serve() throws IOException;
+
+    /**
+     * 停止接受新连接
+     */
+    void closeListener();
+
+    /**
+     * 关闭所有会话并释放线程
+     */
+    void shutdown();
+}
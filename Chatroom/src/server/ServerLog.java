@@ -0,0 +1,260 @@
+package server;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 服务器事件日志：调用方只把事件放入无锁队列，不格式化、不做 I/O，也不会阻塞
+ * 后台线程定时成批取出，写到控制台和按大小滚动的日志文件，并保存在固定容量的环形缓冲中供管理界面显示
+ * 队列积压超过上限时丢弃新事件并计数，之后补记一条丢弃了多少条
+ */
+public class ServerLog {
+    public enum Level { INFO, WARN, ERROR }
+
+    // 均可通过 -Dchat.serverLog.* 配置；dir 设为空串时只输出到控制台
+    static final String DIR = System.getProperty("chat.serverLog.dir", "logs");
+    static final long MAX_FILE_BYTES = Long.getLong("chat.serverLog.maxBytes", 10L << 20);
+    static final int MAX_FILES = Math.max(Integer.getInteger("chat.serverLog.files", 5), 1);
+    static final int QUEUE_CAPACITY = Integer.getInteger("chat.serverLog.queue", 65536);
+    static final int RECENT_CAPACITY = Integer.getInteger("chat.serverLog.recent", 2000);
+    static final long DRAIN_MILLIS = 50;
+    static final int BATCH_SIZE = 4096;
+    // 监听器出错最多每隔这么久补记一次，出错的监听器不会因此刷屏
+    static final long FAILURE_REPORT_MILLIS = 60_000;
+
+    private static final String FILE_NAME = "server.log";
+    private static final DateTimeFormatter FILE_TIME =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+    private static final DateTimeFormatter VIEW_TIME =
+        DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    /**
+     * 一条日志事件，字段在调用线程上填好，格式化留给后台线程
+     */
+    public static class Event {
+        private final long time = System.currentTimeMillis();
+        private final String thread = Thread.currentThread().getName();
+        private final Level level;
+        private final String message;
+        private final Throwable error;
+
+        Event(Level level, String message, Throwable error) {
+            this.level = level;
+            this.message = message;
+            this.error = error;
+        }
+
+        public long getTime() { return time; }
+        public String getThread() { return thread; }
+        public Level getLevel() { return level; }
+        public String getMessage() { return message; }
+        public Throwable getError() { return error; }
+    }
+
+    /**
+     * 管理界面用的监听器，在日志线程上以批为单位调用，lines 为显示格式的行
+     */
+    public interface Listener {
+        void logged(List<String> lines);
+    }
+
+    private static final Queue<Event> queue = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger queued = new AtomicInteger();
+    private static final LongAdder dropped = new LongAdder();
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // 最近的显示行，下标 = 序号 % 容量；只由日志线程写入
+    private static final String[] recent = new String[RECENT_CAPACITY];
+    private static long recentCount;
+
+    // 监听器出错次数和最近一次的异常，只由日志线程读写，在下一批补记为 WARN
+    private static long listenerFailures;
+    private static RuntimeException lastListenerFailure;
+    private static long lastFailureReport;
+
+    private static OutputStream file;
+    private static long fileBytes;
+    private static boolean fileFailed;
+
+    static {
+        Thread drainer = new Thread(ServerLog::drainLoop, "server-log");
+        drainer.setDaemon(true);
+        drainer.start();
+        // 退出前写出队列中剩余的事件
+        Runtime.getRuntime().addShutdownHook(new Thread(ServerLog::drain, "server-log-shutdown"));
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message, null);
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message, null);
+    }
+
+    public static void error(String message, Throwable error) {
+        log(Level.ERROR, message, error);
+    }
+
+    /**
+     * 放入队列后立即返回；队列已满时丢弃
+     */
+    public static void log(Level level, String message, Throwable error) {
+        if (queued.incrementAndGet() > QUEUE_CAPACITY) {
+            queued.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+        queue.add(new Event(level, message, error));
+    }
+
+    /**
+     * 注册监听器，并返回当前环形缓冲中的最近若干行，用于初始化显示
+     */
+    public static List<String> addListener(Listener listener) {
+        synchronized (recent) {
+            listeners.add(listener);
+            return recentLines();
+        }
+    }
+
+    public static void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private static List<String> recentLines() {
+        List<String> lines = new ArrayList<>();
+        for (long i = Math.max(0, recentCount - RECENT_CAPACITY); i < recentCount; i++) {
+            lines.add(recent[(int) (i % RECENT_CAPACITY)]);
+        }
+        return lines;
+    }
+
+    private static void drainLoop() {
+        while (true) {
+            drain();
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(DRAIN_MILLIS));
+        }
+    }
+
+    // 取出队列中已有的全部事件，每 BATCH_SIZE 条写出并刷新一次；日志线程和退出钩子都会调用
+    private static synchronized void drain() {
+        List<Event> batch = new ArrayList<>();
+        Event event;
+        while ((event = queue.poll()) != null) {
+            queued.decrementAndGet();
+            batch.add(event);
+            if (batch.size() == BATCH_SIZE) {
+                write(batch);
+                batch.clear();
+            }
+        }
+        long lost = dropped.sumThenReset();
+        if (lost > 0) {
+            batch.add(new Event(Level.WARN, "日志积压，丢弃了 " + lost + " 条", null));
+        }
+        long now = System.currentTimeMillis();
+        if (listenerFailures > 0 && now - lastFailureReport >= FAILURE_REPORT_MILLIS) {
+            batch.add(new Event(Level.WARN, "日志监听器出错 " + listenerFailures + " 次", lastListenerFailure));
+            listenerFailures = 0;
+            lastListenerFailure = null;
+            lastFailureReport = now;
+        }
+        if (!batch.isEmpty()) {
+            write(batch);
+        }
+    }
+
+    private static void write(List<Event> batch) {
+        StringBuilder console = new StringBuilder();
+        StringBuilder text = new StringBuilder();
+        List<String> lines = new ArrayList<>(batch.size());
+        for (Event e : batch) {
+            String trace = e.error != null ? stackTrace(e.error) : "";
+            console.append(e.message).append('\n').append(trace);
+            text.append(FILE_TIME.format(Instant.ofEpochMilli(e.time))).append(' ').append(e.level)
+                .append(" [").append(e.thread).append("] ").append(e.message).append('\n').append(trace);
+            lines.add("[" + VIEW_TIME.format(Instant.ofEpochMilli(e.time)) + "] "
+                + (e.level == Level.INFO ? "" : e.level + " ") + e.message);
+        }
+        System.out.print(console);
+        System.out.flush();
+        writeFile(text.toString().getBytes(StandardCharsets.UTF_8));
+        // 与 addListener 同步，新监听器既不会漏掉也不会重复收到这一批
+        synchronized (recent) {
+            for (String line : lines) {
+                recent[(int) (recentCount++ % RECENT_CAPACITY)] = line;
+            }
+            for (Listener listener : listeners) {
+                try {
+                    listener.logged(lines);
+                } catch (RuntimeException e) {
+                    listenerFailures++;
+                    lastListenerFailure = e;
+                }
+            }
+        }
+    }
+
+    private static String stackTrace(Throwable error) {
+        StringWriter writer = new StringWriter();
+        error.printStackTrace(new PrintWriter(writer));
+        return writer.toString();
+    }
+
+    // 写日志文件，超过大小时滚动：server.log → server.log.1 → … → server.log.(MAX_FILES-1)
+    private static void writeFile(byte[] bytes) {
+        if (DIR.isEmpty() || fileFailed) {
+            return;
+        }
+        try {
+            if (file != null && fileBytes + bytes.length > MAX_FILE_BYTES) {
+                file.close();
+                file = null;
+                rotate();
+            }
+            if (file == null) {
+                File dir = new File(DIR);
+                if (!dir.isDirectory() && !dir.mkdirs()) {
+                    throw new IOException("无法创建日志目录: " + dir);
+                }
+                File current = new File(dir, FILE_NAME);
+                fileBytes = current.length();
+                file = new BufferedOutputStream(new FileOutputStream(current, true), 64 * 1024);
+            }
+            file.write(bytes);
+            file.flush();
+            fileBytes += bytes.length;
+        } catch (IOException e) {
+            // 日志文件不可用时只输出到控制台，不再重试；失败本身作为一条事件在下一批记录
+            fileFailed = true;
+            warn("日志文件写入失败，之后只输出到控制台: " + e.getMessage());
+        }
+    }
+
+    private static void rotate() {
+        File dir = new File(DIR);
+        new File(dir, FILE_NAME + "." + (MAX_FILES - 1)).delete();
+        for (int i = MAX_FILES - 2; i >= 1; i--) {
+            new File(dir, FILE_NAME + "." + i).renameTo(new File(dir, FILE_NAME + "." + (i + 1)));
+        }
+        File current = new File(dir, FILE_NAME);
+        if (MAX_FILES > 1) {
+            current.renameTo(new File(dir, FILE_NAME + ".1"));
+        } else {
+            current.delete();
+        }
+    }
+}
\ No newline at end of file
@@ -3,21 +3,38 @@ package server;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.util.Collections;
 
+import common.CompressedCodec;
+
 public class ServerManagerGUI extends JFrame {
+    // 在线用户列表最多每隔这么久刷新一次，期间的上线/下线合并应用
+    private static final int ROSTER_REFRESH_MILLIS = 200;
+    
     private ChatServer server;
     private UserManager userManager;
     private JTextArea logArea;
     private JList<String> userList;
-    private DefaultListModel<String> listModel;
+    private RosterListModel listModel;
+    private JPanel rosterPanel;
+    private JTextField filterField;
+    // 尚未应用到列表的变化：用户名 → true 上线 / false 下线，同一用户只保留最后一次
+    private final Map<String, Boolean> pendingRoster = new LinkedHashMap<>();
+    private DefaultListModel<String> roomModel;
     private JButton startButton;
     private JButton stopButton;
     private JButton refreshButton;
     private JButton kickButton;
+    private JButton queueButton;
+    private JButton metricsButton;
+    private JComboBox<EngineType> engineBox;
     private JLabel ipInfoLabel;
     
     public ServerManagerGUI() {
@@ -51,14 +68,21 @@ public class ServerManagerGUI extends JFrame {
         stopButton = new JButton("停止服务器");
         refreshButton = new JButton("刷新列表");
         kickButton = new JButton("踢出用户");
+        queueButton = new JButton("发送队列");
+        metricsButton = new JButton("运行指标");
+        engineBox = new JComboBox<>(EngineType.values());
+        engineBox.setSelectedItem(server.getEngineType());
         
         stopButton.setEnabled(false);
         kickButton.setEnabled(false);
         
+        controlPanel.add(engineBox);
         controlPanel.add(startButton);
         controlPanel.add(stopButton);
         controlPanel.add(refreshButton);
         controlPanel.add(kickButton);
+        controlPanel.add(queueButton);
+        controlPanel.add(metricsButton);
         
         // IP信息面板
         JPanel infoPanel = new JPanel(new FlowLayout());
@@ -72,6 +96,8 @@ public class ServerManagerGUI extends JFrame {
         logArea.setBackground(new Color(240, 240, 240));
         JScrollPane logScroll = new JScrollPane(logArea);
         logScroll.setBorder(BorderFactory.createTitledBorder("服务器日志"));
+        // 日志由后台日志线程成批推送，每批只切换一次事件分发线程；先补上已有的最近日志
+        appendLog(ServerLog.addListener(lines -> SwingUtilities.invokeLater(() -> appendLog(lines))));
         
         // 创建底部面板包含按钮和日志
         JPanel bottomPanel = new JPanel(new BorderLayout());
@@ -84,13 +110,31 @@ public class ServerManagerGUI extends JFrame {
         // 右侧：用户列表
         JPanel rightPanel = new JPanel(new BorderLayout());
         rightPanel.setBorder(BorderFactory.createTitledBorder("在线用户管理"));
+        rosterPanel = rightPanel;
         
-        listModel = new DefaultListModel<>();
+        listModel = new RosterListModel();
         userList = new JList<>(listModel);
+        // 固定行高和宽度，上万行时不必逐行测量
+        userList.setPrototypeCellValue("用户名用户名用户名用户名");
         JScrollPane userScroll = new JScrollPane(userList);
         
+        filterField = new JTextField();
+        filterField.setToolTipText("按用户名过滤");
+        JPanel filterPanel = new JPanel(new BorderLayout());
+        filterPanel.add(new JLabel("过滤："), BorderLayout.WEST);
+        filterPanel.add(filterField, BorderLayout.CENTER);
+        
+        rightPanel.add(filterPanel, BorderLayout.NORTH);
         rightPanel.add(userScroll, BorderLayout.CENTER);
         
+        // 房间及人数
+        roomModel = new DefaultListModel<>();
+        JList<String> roomList = new JList<>(roomModel);
+        roomList.setVisibleRowCount(6);
+        JScrollPane roomScroll = new JScrollPane(roomList);
+        roomScroll.setBorder(BorderFactory.createTitledBorder("房间（人数）"));
+        rightPanel.add(roomScroll, BorderLayout.SOUTH);
+        
         mainSplitPane.setLeftComponent(leftPanel);
         mainSplitPane.setRightComponent(rightPanel);
         
@@ -105,21 +149,77 @@ public class ServerManagerGUI extends JFrame {
         stopButton.addActionListener(e -> stopServer());
         refreshButton.addActionListener(e -> refreshUserList());
         kickButton.addActionListener(e -> kickUser());
+        queueButton.addActionListener(e -> showQueueStats());
+        metricsButton.addActionListener(e -> showMetrics());
         
         userList.addListSelectionListener(e -> {
             kickButton.setEnabled(!userList.isSelectionEmpty());
         });
+        
+        filterField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            public void insertUpdate(javax.swing.event.DocumentEvent e) { applyFilter(); }
+            public void removeUpdate(javax.swing.event.DocumentEvent e) { applyFilter(); }
+            public void changedUpdate(javax.swing.event.DocumentEvent e) { applyFilter(); }
+        });
+        
+        // 上线/下线由用户管理器推送，先记下，再由定时器在事件分发线程上批量应用
+        userManager.addRosterListener(this::rosterChanged);
+        new Timer(ROSTER_REFRESH_MILLIS, e -> applyPendingRoster()).start();
+        listModel.reset(userManager.getOnlineUsers());
+        updateRosterTitle();
+    }
+    
+    private void rosterChanged(Collection<String> joined, Collection<String> left) {
+        synchronized (pendingRoster) {
+            for (String name : left) {
+                pendingRoster.put(name, false);
+            }
+            for (String name : joined) {
+                pendingRoster.put(name, true);
+            }
+        }
+    }
+    
+    private void applyPendingRoster() {
+        List<String> joined = new ArrayList<>();
+        List<String> left = new ArrayList<>();
+        synchronized (pendingRoster) {
+            if (pendingRoster.isEmpty()) {
+                return;
+            }
+            for (Map.Entry<String, Boolean> entry : pendingRoster.entrySet()) {
+                (entry.getValue() ? joined : left).add(entry.getKey());
+            }
+            pendingRoster.clear();
+        }
+        listModel.apply(joined, left);
+        updateRosterTitle();
+    }
+    
+    private void applyFilter() {
+        listModel.setFilter(filterField.getText());
+        updateRosterTitle();
+    }
+    
+    private void updateRosterTitle() {
+        String title = "在线用户管理（" + listModel.getTotalSize() + "人";
+        if (listModel.getSize() != listModel.getTotalSize()) {
+            title += "，显示" + listModel.getSize() + "人";
+        }
+        rosterPanel.setBorder(BorderFactory.createTitledBorder(title + "）"));
     }
     
     private void startServer() {
         //this.server = new ChatServer(userManager);
+        server.setEngineType((EngineType) engineBox.getSelectedItem());
         new Thread(() -> {
             server.start();
         }).start();
         
         startButton.setEnabled(false);
         stopButton.setEnabled(true);
-        logMessage("服务器已启动，端口：8888");
+        engineBox.setEnabled(false);
+        logMessage("服务器已启动，端口：8888，引擎：" + server.getEngineType());
         
         // 显示IP信息
         displayIPInfo();
@@ -148,7 +248,8 @@ public class ServerManagerGUI extends JFrame {
                     ipInfoLabel.setText("服务器IP: 服务器已停止");
                     
                     // 清空用户列表
-                    listModel.clear();
+                    listModel.reset(List.of());
+                    roomModel.clear();
                 });
                 System.exit(0);
             }).start();
@@ -197,14 +298,38 @@ public class ServerManagerGUI extends JFrame {
         }).start();
     }
     
+    // 列表平时由上线/下线事件自动更新，这里按当前登记表完整重建一次
     private void refreshUserList() {
         if (userManager != null) {
             List<String> users = userManager.getOnlineUsers();
-            listModel.clear();
-            for (String user : users) {
-                listModel.addElement(user);
-            }
+            listModel.reset(users);
+            updateRosterTitle();
             logMessage("用户列表已刷新，当前在线用户：" + users.size() + "人");
+            refreshRoomList();
+        }
+    }
+    
+    private void refreshRoomList() {
+        Map<String, Integer> rooms = userManager.getRoomManager().getRoomSizes();
+        roomModel.clear();
+        for (Map.Entry<String, Integer> room : rooms.entrySet()) {
+            roomModel.addElement(room.getKey() + " (" + room.getValue() + "人)");
+        }
+    }
+    
+    private void showQueueStats() {
+        List<String> stats = userManager.getOutboundStats();
+        logMessage("发送队列状态（" + stats.size() + "个会话）：");
+        for (String line : stats) {
+            logMessage("  " + line);
+        }
+        logMessage("帧压缩：" + CompressedCodec.stats());
+    }
+    
+    private void showMetrics() {
+        logMessage("运行指标：");
+        for (String line : ServerMetrics.get().getSummary().split("\\R")) {
+            logMessage("  " + line);
         }
     }
     
@@ -216,17 +341,35 @@ public class ServerManagerGUI extends JFrame {
                 "确认踢出", JOptionPane.YES_NO_OPTION);
             
             if (result == JOptionPane.YES_OPTION) {
-                userManager.kickUser(selectedUser); 
-                refreshUserList();
+                userManager.kickUser(selectedUser); // 下线事件会更新列表
             }
         }
     }
     
+    // 与其它服务器事件一样写入日志，由日志线程回送到日志区
     public void logMessage(String message) {
-        SwingUtilities.invokeLater(() -> {
-            logArea.append("[" + java.time.LocalTime.now().format(java.time.format.DateTimeFormatter.ofPattern("HH:mm:ss")) + "] " + message + "\n");
-            logArea.setCaretPosition(logArea.getDocument().getLength());
-        });
+        ServerLog.info(message);
+    }
+    
+    // 追加一批日志行，超过日志环形缓冲容量的最老行从日志区删除
+    private void appendLog(List<String> lines) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            text.append(line).append('\n');
+        }
+        logArea.append(text.toString());
+        int excess = logArea.getLineCount() - 1 - ServerLog.RECENT_CAPACITY;
+        if (excess > 0) {
+            try {
+                logArea.replaceRange("", 0, logArea.getLineEndOffset(excess - 1));
+            } catch (javax.swing.text.BadLocationException e) {
+                // 行号来自当前文档，不会越界
+            }
+        }
+        logArea.setCaretPosition(logArea.getDocument().getLength());
     }
     
     // 提供给外部调用的日志方法
@@ -237,10 +380,8 @@ public class ServerManagerGUI extends JFrame {
     // 提供给外部更新用户列表的方法
     public void updateUserList(List<String> users) {
         SwingUtilities.invokeLater(() -> {
-            listModel.clear();
-            for (String user : users) {
-                listModel.addElement(user);
-            }
+            listModel.reset(users);
+            updateRosterTitle();
         });
     }
     
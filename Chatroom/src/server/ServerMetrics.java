@@ -0,0 +1,291 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import common.LatencyHistogram;
+
+/**
+ * 服务器运行指标：计数用 LongAdder，延迟用无锁直方图，热路径上只有几次原子加法
+ * 后台线程每秒采样一次，速率和延迟百分位取最近 WINDOW_SECONDS 秒
+ * 可通过 JMX 读取；设置 -Dchat.metrics.port 后在本机该端口提供文本和 Prometheus 格式
+ */
+public class ServerMetrics implements ServerMetricsMBean {
+    static final int WINDOW_SECONDS = 10;
+    static final String OBJECT_NAME = "chatroom:type=ServerMetrics";
+
+    private static final LongAdder messagesIn = new LongAdder();
+    private static final LongAdder messagesOut = new LongAdder();
+    private static final LongAdder bytesIn = new LongAdder();
+    private static final LongAdder bytesOut = new LongAdder();
+    private static final LongAdder connectionsOpened = new LongAdder();
+    private static final LongAdder connectionsClosed = new LongAdder();
+    private static final LongAdder logins = new LongAdder();
+    private static final LongAdder loginFailures = new LongAdder();
+    private static final LongAdder errors = new LongAdder();
+    private static final LongAdder dropped = new LongAdder();
+    private static final LongAdder forcedDisconnects = new LongAdder();
+    private static final LatencyHistogram fanOut = new LatencyHistogram();
+    private static final LatencyHistogram writeLatency = new LatencyHistogram();
+
+    private static final ServerMetrics INSTANCE = new ServerMetrics();
+    private static final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "metrics-sampler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 每秒一个样本的环形数组，下标 = 采样次数 % 长度
+    private final Sample[] samples = new Sample[WINDOW_SECONDS + 1];
+    private long sampleCount;
+    private volatile Window window = new Window(new Sample(), new Sample());
+    private volatile UserManager userManager;
+    private HttpServer http;
+
+    // 某一时刻全部累计值
+    private static class Sample {
+        final long nanos = System.nanoTime();
+        final long in = messagesIn.sum();
+        final long out = messagesOut.sum();
+        final long inBytes = bytesIn.sum();
+        final long outBytes = bytesOut.sum();
+        final long loginCount = logins.sum();
+        final LatencyHistogram.Snapshot fanOutSnapshot = fanOut.snapshot();
+        final LatencyHistogram.Snapshot writeSnapshot = writeLatency.snapshot();
+    }
+
+    // 最近一个窗口内的速率和分布
+    private static class Window {
+        final double seconds;
+        final double in;
+        final double out;
+        final double inBytes;
+        final double outBytes;
+        final double loginRate;
+        final LatencyHistogram.Snapshot fanOut;
+        final LatencyHistogram.Snapshot write;
+
+        Window(Sample from, Sample to) {
+            seconds = Math.max(1e-3, (to.nanos - from.nanos) / 1e9);
+            in = (to.in - from.in) / seconds;
+            out = (to.out - from.out) / seconds;
+            inBytes = (to.inBytes - from.inBytes) / seconds;
+            outBytes = (to.outBytes - from.outBytes) / seconds;
+            loginRate = (to.loginCount - from.loginCount) / seconds;
+            fanOut = to.fanOutSnapshot.since(from.fanOutSnapshot);
+            write = to.writeSnapshot.since(from.writeSnapshot);
+        }
+    }
+
+    static {
+        sampler.scheduleAtFixedRate(INSTANCE::sample, 1, 1, TimeUnit.SECONDS);
+    }
+
+    public static ServerMetrics get() {
+        return INSTANCE;
+    }
+
+    private synchronized void sample() {
+        Sample now = new Sample();
+        samples[(int) (sampleCount % samples.length)] = now;
+        sampleCount++;
+        Sample oldest = samples[(int) (sampleCount < samples.length ? 0 : sampleCount % samples.length)];
+        window = new Window(oldest, now);
+    }
+
+    // ===== 记录，热路径调用 =====
+
+    static void messageIn() {
+        messagesIn.increment();
+    }
+
+    static void bytesIn(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    static void messageOut(int bytes, long queuedNanos) {
+        messagesOut.increment();
+        bytesOut.add(bytes);
+        if (queuedNanos > 0) {
+            writeLatency.record(queuedNanos / 1000);
+        }
+    }
+
+    static void fanOut(long nanos) {
+        fanOut.record(nanos / 1000);
+    }
+
+    static void connectionOpened() {
+        connectionsOpened.increment();
+    }
+
+    static void connectionClosed() {
+        connectionsClosed.increment();
+    }
+
+    static void login(boolean success) {
+        (success ? logins : loginFailures).increment();
+    }
+
+    static void error() {
+        errors.increment();
+    }
+
+    static void dropped(long count) {
+        dropped.add(count);
+    }
+
+    static void forcedDisconnect() {
+        forcedDisconnects.increment();
+    }
+
+    // ===== 发布 =====
+
+    /**
+     * 注册 JMX，并按 -Dchat.metrics.port 启动本机 HTTP 端点；重复调用只更新用户管理器
+     */
+    public synchronized void register(UserManager userManager) {
+        this.userManager = userManager;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            ServerLog.warn("注册 JMX 指标失败: " + e.getMessage());
+        }
+        Integer port = Integer.getInteger("chat.metrics.port");
+        if (port != null && http == null) {
+            try {
+                http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+                http.createContext("/metrics", exchange -> respond(exchange, prometheus(), "text/plain; version=0.0.4; charset=utf-8"));
+                http.createContext("/", exchange -> respond(exchange, getSummary(), "text/plain; charset=utf-8"));
+                http.start();
+                ServerLog.info("指标端点: http://127.0.0.1:" + port + "/metrics");
+            } catch (IOException e) {
+                http = null;
+                ServerLog.warn("指标端点启动失败: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void respond(HttpExchange exchange, String body, String contentType) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Prometheus 文本格式
+     */
+    public String prometheus() {
+        Window w = window;
+        StringBuilder text = new StringBuilder();
+        counter(text, "chat_messages_in_total", "客户端发来的消息数", messagesIn.sum());
+        counter(text, "chat_messages_out_total", "写给客户端的消息数", messagesOut.sum());
+        counter(text, "chat_bytes_in_total", "从客户端读取的字节数", bytesIn.sum());
+        counter(text, "chat_bytes_out_total", "写给客户端的字节数", bytesOut.sum());
+        counter(text, "chat_logins_total", "成功登录次数", logins.sum());
+        counter(text, "chat_login_failures_total", "被拒绝的登录次数", loginFailures.sum());
+        counter(text, "chat_errors_total", "连接异常次数", errors.sum());
+        counter(text, "chat_dropped_messages_total", "发送队列溢出丢弃的消息数", dropped.sum());
+        counter(text, "chat_forced_disconnects_total", "被服务器断开的会话数", forcedDisconnects.sum());
+        gauge(text, "chat_active_connections", "当前连接数", getActiveConnections());
+        gauge(text, "chat_online_users", "当前在线用户数", getOnlineUsers());
+        gauge(text, "chat_messages_in_per_second", "最近10秒每秒收到的消息数", w.in);
+        gauge(text, "chat_messages_out_per_second", "最近10秒每秒写出的消息数", w.out);
+        summary(text, "chat_fanout_seconds", "一次广播入队到全部接收者的耗时，分位数为最近10秒", w.fanOut, fanOut);
+        summary(text, "chat_write_latency_seconds", "消息从入队到写出的耗时，分位数为最近10秒", w.write, writeLatency);
+        return text.toString();
+    }
+
+    private static void counter(StringBuilder text, String name, String help, long value) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(" counter\n");
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder text, String name, String help, double value) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(" gauge\n");
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder text, String name, String help, LatencyHistogram.Snapshot recent, LatencyHistogram total) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(" summary\n");
+        for (String quantile : new String[]{"0.5", "0.99", "0.999"}) {
+            text.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                .append(recent.percentile(Double.parseDouble(quantile) * 100) / 1e6).append('\n');
+        }
+        LatencyHistogram.Snapshot all = total.snapshot();
+        text.append(name).append("_sum ").append(all.getSum() / 1e6).append('\n');
+        text.append(name).append("_count ").append(all.getCount()).append('\n');
+    }
+
+    // ===== JMX =====
+
+    public long getMessagesIn() { return messagesIn.sum(); }
+    public long getMessagesOut() { return messagesOut.sum(); }
+    public long getBytesIn() { return bytesIn.sum(); }
+    public long getBytesOut() { return bytesOut.sum(); }
+    public double getMessagesInPerSecond() { return window.in; }
+    public double getMessagesOutPerSecond() { return window.out; }
+    public double getBytesInPerSecond() { return window.inBytes; }
+    public double getBytesOutPerSecond() { return window.outBytes; }
+
+    public long getActiveConnections() { return connectionsOpened.sum() - connectionsClosed.sum(); }
+    public long getLogins() { return logins.sum(); }
+    public long getLoginFailures() { return loginFailures.sum(); }
+    public double getLoginsPerSecond() { return window.loginRate; }
+
+    public int getOnlineUsers() {
+        UserManager manager = userManager;
+        return manager != null ? manager.getOnlineUsers().size() : 0;
+    }
+
+    public long getErrors() { return errors.sum(); }
+    public long getDroppedMessages() { return dropped.sum(); }
+    public long getForcedDisconnects() { return forcedDisconnects.sum(); }
+
+    public long getFanOutP50Micros() { return window.fanOut.percentile(50); }
+    public long getFanOutP99Micros() { return window.fanOut.percentile(99); }
+    public long getFanOutP999Micros() { return window.fanOut.percentile(99.9); }
+    public long getWriteLatencyP50Micros() { return window.write.percentile(50); }
+    public long getWriteLatencyP99Micros() { return window.write.percentile(99); }
+    public long getWriteLatencyP999Micros() { return window.write.percentile(99.9); }
+
+    /**
+     * 人可读的摘要，用于管理界面和文本端点
+     */
+    public String getSummary() {
+        Window w = window;
+        return String.format("最近%d秒：收 %.0f 条/秒（%.1f KB/秒），发 %.0f 条/秒（%.1f KB/秒），登录 %.1f 次/秒%n"
+                + "广播耗时 p50 %d / p99 %d / p999 %d 微秒；写出延迟 p50 %d / p99 %d / p999 %d 微秒%n"
+                + "连接 %d，在线 %d，累计登录 %d（失败 %d），异常 %d，丢弃 %d，强制断开 %d",
+            WINDOW_SECONDS, w.in, w.inBytes / 1024, w.out, w.outBytes / 1024, w.loginRate,
+            w.fanOut.percentile(50), w.fanOut.percentile(99), w.fanOut.percentile(99.9),
+            w.write.percentile(50), w.write.percentile(99), w.write.percentile(99.9),
+            getActiveConnections(), getOnlineUsers(), logins.sum(), loginFailures.sum(),
+            errors.sum(), dropped.sum(), forcedDisconnects.sum());
+    }
+}
\ No newline at end of file
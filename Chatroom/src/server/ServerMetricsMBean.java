@@ -0,0 +1,35 @@
+package server;
+
+/**
+ * 通过 JMX 暴露的服务器指标，对象名 chatroom:type=ServerMetrics
+ * 速率和延迟百分位统计最近 10 秒，计数从启动时累计
+ */
+public interface ServerMetricsMBean {
+    long getMessagesIn();
+    long getMessagesOut();
+    long getBytesIn();
+    long getBytesOut();
+    double getMessagesInPerSecond();
+    double getMessagesOutPerSecond();
+    double getBytesInPerSecond();
+    double getBytesOutPerSecond();
+
+    long getActiveConnections();
+    int getOnlineUsers();
+    long getLogins();
+    long getLoginFailures();
+    double getLoginsPerSecond();
+
+    long getErrors();
+    long getDroppedMessages();
+    long getForcedDisconnects();
+
+    long getFanOutP50Micros();
+    long getFanOutP99Micros();
+    long getFanOutP999Micros();
+    long getWriteLatencyP50Micros();
+    long getWriteLatencyP99Micros();
+    long getWriteLatencyP999Micros();
+
+    String getSummary();
+}
\ No newline at end of file
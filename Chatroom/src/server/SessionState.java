@@ -0,0 +1,21 @@
+package server;
+
+/**
+ * 用户名登记的状态：登录中 → 在线 → 离开中
+ * 状态只能向前推进，由比较并交换完成，不需要加锁
+ */
+public enum SessionState {
+    CONNECTING("登录中"),
+    ONLINE("在线"),
+    LEAVING("离开中");
+
+    private final String description;
+
+    SessionState(String description) {
+        this.description = description;
+    }
+
+    public String toString() {
+        return description;
+    }
+}
\ No newline at end of file
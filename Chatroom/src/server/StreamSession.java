@@ -0,0 +1,84 @@
+package server;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 基于阻塞Socket的会话，由 ClientHandler 线程读取
+ * 发送队列由提交到写线程池的任务串行写出，同一时刻只有一个写线程
+ */
+public class StreamSession extends ClientSession {
+    static final int BUFFER_SIZE = 8192;
+
+    private Socket socket;
+    private OutputStream output;
+    private Executor writer;
+    private final AtomicBoolean writing = new AtomicBoolean(false);
+
+    public StreamSession(Socket socket, ChatProtocol protocol, Executor writer) throws IOException {
+        super(protocol);
+        this.socket = socket;
+        this.output = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+        this.writer = writer;
+    }
+
+    protected void scheduleWrite() {
+        if (writing.compareAndSet(false, true)) {
+            try {
+                writer.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                writing.set(false);
+                close(); // 服务器正在关闭
+            }
+        }
+    }
+
+    /**
+     * 写出队列中的所有消息，队列空时才 flush，连续的消息合并成一次系统调用
+     */
+    private void drain() {
+        try {
+            EncodedMessage message;
+            while ((message = outbound.poll()) != null) {
+                message.writeTo(output, getCodec());
+                if (outbound.isEmpty()) {
+                    output.flush();
+                }
+                outbound.written();
+            }
+        } catch (IOException e) {
+            writing.set(false);
+            close();
+            return;
+        }
+        writing.set(false);
+        // 释放写权限后可能有新消息入队
+        if (!outbound.isEmpty()) {
+            scheduleWrite();
+        } else {
+            onDrained();
+        }
+    }
+
+    // 输入输出各一个固定大小的缓冲区，读到的帧交给协议层后即释放
+    protected int inboundBufferBytes() {
+        return 2 * BUFFER_SIZE;
+    }
+
+    public String getRemoteAddress() {
+        return socket.getInetAddress().getHostAddress();
+    }
+
+    protected void closeTransport() {
+        try {
+            if (!socket.isClosed()) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            // 忽略关闭时的异常
+        }
+    }
+}
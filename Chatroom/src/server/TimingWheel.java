@@ -0,0 +1,144 @@
+package server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 哈希时间轮：一个线程按固定刻度推进，定时项按到期刻度散列到槽中
+ * 登记和取消都是 O(1)，每个刻度只处理一个槽；适合大量、精度要求不高的超时
+ * 任何线程都可以登记，新定时项先进入无锁队列，由时间轮线程在下一个刻度放入槽中
+ * 任务在时间轮线程上执行，不应阻塞
+ */
+public class TimingWheel {
+    /**
+     * 已登记的定时项
+     */
+    public static final class Timeout {
+        private final Runnable task;
+        private final long deadline; // 到期刻度
+        private long rounds; // 还要转过的整圈数
+        private volatile boolean cancelled;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        // 取消后留在槽中，轮到该槽时才移除
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private final long tickNanos;
+    private final long start = System.nanoTime(); // 第 n 个刻度在 start + n * tickNanos 时处理
+    private final Timeout[] slots;
+    private final int mask;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private volatile long tick;
+    private volatile boolean running = true;
+
+    /**
+     * @param slots 槽数，取整为 2 的幂
+     */
+    public TimingWheel(String name, long tickMillis, int slots) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int size = Integer.highestOneBit(Math.max(slots, 2) - 1) << 1;
+        this.slots = new Timeout[size];
+        this.mask = size - 1;
+        Thread worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * 登记一个至少 delayMillis 毫秒后执行的任务
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        // 按起始时间换算到期刻度：当前刻度已经过去的部分也要算上，否则最多会提前一个刻度执行
+        long due = System.nanoTime() - start + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+        Timeout timeout = new Timeout(task, Math.max(tick + 1, (due + tickNanos - 1) / tickNanos));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * 当前刻度，只增不减；用于记录活动时间，比读系统时钟便宜
+     */
+    public long currentTick() {
+        return tick;
+    }
+
+    public long getTickMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(tickNanos);
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    private void run() {
+        while (running) {
+            // 按起始时间计算下一刻度，不累积误差
+            long wait = start + (tick + 1) * tickNanos - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            tick++;
+            transferPending();
+            expire(slots[(int) (tick & mask)]);
+        }
+    }
+
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            long deadline = Math.max(timeout.deadline, tick); // 已过期的放入当前槽
+            timeout.rounds = (deadline - tick) / slots.length;
+            int index = (int) (deadline & mask);
+            timeout.next = slots[index];
+            slots[index] = timeout;
+        }
+    }
+
+    // 处理当前槽：移除已取消和到期的项，其余的圈数减一
+    private void expire(Timeout head) {
+        int index = (int) (tick & mask);
+        slots[index] = null;
+        Timeout kept = null;
+        while (head != null) {
+            Timeout timeout = head;
+            head = head.next;
+            if (timeout.cancelled) {
+                continue;
+            }
+            if (timeout.rounds > 0) {
+                timeout.rounds--;
+                timeout.next = kept;
+                kept = timeout;
+                continue;
+            }
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                ServerLog.error("定时任务出错", e);
+            }
+        }
+        // 任务执行时新登记的项在 pending 中，不会写入这个槽
+        while (kept != null) {
+            Timeout timeout = kept;
+            kept = kept.next;
+            timeout.next = slots[index];
+            slots[index] = timeout;
+        }
+    }
+}
\ No newline at end of file
@@ -3,10 +3,65 @@ package server;
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 import common.Message;
 
 public class UserManager {
-    private ConcurrentHashMap<String, ObjectOutputStream> users;
+    /**
+     * 本节点在线用户变化的监听器，在发布线程上调用，不应阻塞
+     */
+    public interface RosterListener {
+        void rosterChanged(Collection<String> joined, Collection<String> left);
+    }
+    
+    /**
+     * 一个用户名的登记：所属会话和状态
+     * 登记表的修改只有 putIfAbsent / remove(key, value) 和状态的比较并交换，修改期间不做任何I/O
+     */
+    private static final class Registration {
+        final ClientSession session;
+        final AtomicReference<SessionState> state = new AtomicReference<>(SessionState.CONNECTING);
+
+        Registration(ClientSession session) {
+            this.session = session;
+        }
+
+        boolean advance(SessionState from, SessionState to) {
+            return state.compareAndSet(from, to);
+        }
+
+        // 进入离开状态并返回之前的状态，只有一个线程能成功，其余返回 null
+        SessionState leave() {
+            SessionState current;
+            while ((current = state.get()) != SessionState.LEAVING) {
+                if (state.compareAndSet(current, SessionState.LEAVING)) {
+                    return current;
+                }
+            }
+            return null;
+        }
+
+        boolean isOnline() {
+            return state.get() == SessionState.ONLINE;
+        }
+    }
+
+    // ConcurrentHashMap 按桶加锁，不同用户名的登录/退出互不阻塞
+    private final ConcurrentHashMap<String, Registration> users;
+    private final RoomManager rooms = new RoomManager();
+    // 花名册版本号：每次上线/下线加一，客户端据此发现遗漏的增量并重新同步
+    private final Object rosterLock = new Object();
+    private long rosterVersion;
+    // 合并短时间内的上线/下线事件
+    private final PresenceBatcher presence = new PresenceBatcher(this, PresenceBatcher.DEFAULT_WINDOW_MILLIS);
+    // 聊天记录，服务器启动时打开；为 null 时不保存
+    private volatile ChatLog chatLog;
+    // 聊天消息全文索引
+    private final SearchIndex searchIndex = new SearchIndex();
+    // 集群节点，单机运行时为 null
+    private volatile ClusterNode cluster;
+    private volatile boolean draining;
+    private final List<RosterListener> rosterListeners = new CopyOnWriteArrayList<>();
     
     public UserManager() {
         this.users = new ConcurrentHashMap<>();
@@ -14,49 +69,71 @@ public class UserManager {
     
     // 添加用户名检查方法
     public boolean isUsernameTaken(String username) {
-        return users.containsKey(username);
+        ClusterNode node = cluster;
+        return users.containsKey(username) || (node != null && node.isRemoteUser(username));
     }
     
-    public boolean addUser(String username, ObjectOutputStream output) {
-        if (isUsernameTaken(username)) {
-            return false; // 用户名已存在
+    /**
+     * 原子地预留用户名，成功后处于登录中状态，登录完成后调用 activate
+     * @return false 表示用户名已被占用
+     */
+    public boolean reserve(String username, ClientSession session) {
+        ClusterNode node = cluster;
+        if (node != null && node.isRemoteUser(username)) {
+            return false;
         }
-        users.put(username, output);
-        return true; // 添加成功
+        return users.putIfAbsent(username, new Registration(session)) == null;
     }
     
-    public void removeUser(String username) {
-        // 先尝试发送下线通知
-        ObjectOutputStream output = users.get(username);
-        if (output != null) {
-            try {
-                Message logoutMsg = new Message("LOGOUT", "系统", "您已下线");
-                output.writeObject(logoutMsg);
-                output.flush();
-            } catch (IOException e) {
-                // 忽略异常
-            }
+    /**
+     * 登录完成，进入在线状态
+     * @return false 表示登录期间该用户已被移除
+     */
+    public boolean activate(String username, ClientSession session) {
+        Registration registration = users.get(username);
+        return registration != null && registration.session == session
+            && registration.advance(SessionState.CONNECTING, SessionState.ONLINE);
+    }
+    
+    public boolean addUser(String username, ClientSession session) {
+        return reserve(username, session) && activate(username, session);
+    }
+    
+    // 将登记置为离开状态并移除，只有一个调用者能成功；返回移除前的状态，未移除返回 null
+    private SessionState unregister(String username, Registration registration) {
+        SessionState previous = registration.leave();
+        if (previous != null) {
+            users.remove(username, registration);
         }
-        users.remove(username);
+        return previous;
+    }
+    
+    /**
+     * 移除用户，仅当该用户名仍属于此会话时才移除
+     * @return true 表示用户此前在线，需要通知其他人下线；false 表示已被移除（如已被踢出）或尚未登录完成
+     */
+    public boolean removeUser(String username, ClientSession session) {
+        Registration registration = users.get(username);
+        if (registration == null || registration.session != session
+                || unregister(username, registration) != SessionState.ONLINE) {
+            return false;
+        }
+        // 会话此时已关闭，不再发送下线通知
+        return true;
     }
     
     // 踢出特定用户
     public void kickUser(String username) {
-        ObjectOutputStream output = users.get(username);
-        if (output != null) {
-            try {
-                Message kickMsg = new Message("FORCE_LOGOUT", "系统", "您已被管理员踢出");
-                output.writeObject(kickMsg);
-                output.flush();
-                // 关闭输出流
-                output.close();
-            } catch (IOException e) {
-                // 忽略异常
+        Registration registration = users.get(username);
+        SessionState previous = registration != null ? unregister(username, registration) : null;
+        if (previous != null) {
+            // 发送踢出通知后关闭连接
+            registration.session.disconnect("您已被管理员踢出");
+            if (previous == SessionState.ONLINE) {
+                announceLeave(username);
             }
+            broadcastSystemMessage("用户 " + username + " 已被踢出"); // 现在这个方法存在了
         }
-        users.remove(username);
-        broadcastUserList();
-        broadcastSystemMessage("用户 " + username + " 已被踢出"); // 现在这个方法存在了
     }
     
     // 广播系统消息的便捷方法
@@ -65,33 +142,353 @@ public class UserManager {
     }
     
     public void broadcastMessage(Message message) {
-        Iterator<Map.Entry<String, ObjectOutputStream>> iterator = users.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<String, ObjectOutputStream> entry = iterator.next();
+        persist(message);
+        // 只编码一次，所有接收者共享同一份帧数据
+        long start = System.nanoTime();
+        EncodedMessage encoded = new EncodedMessage(message);
+        for (Registration registration : users.values()) {
             try {
-                entry.getValue().writeObject(message);
-                entry.getValue().flush();
+                registration.session.send(encoded);
             } catch (IOException e) {
-                // 如果发送失败，可能是连接已断开，从列表中移除
-                iterator.remove();
+                // 连接已断开，会话关闭时会自行移除并通知其他人
             }
         }
+        ServerMetrics.fanOut(System.nanoTime() - start);
+    }
+    
+    /**
+     * 新用户上线，在合并窗口结束时统一发布
+     */
+    public void announceJoin(ClientSession newcomer) {
+        presence.joined(newcomer);
+        ClusterNode node = cluster;
+        if (node != null) {
+            node.relayJoin(newcomer.getUsername());
+        }
+    }
+    
+    /**
+     * 用户下线，在合并窗口结束时统一发布
+     */
+    public void announceLeave(String username) {
+        presence.left(username);
+        ClusterNode node = cluster;
+        if (node != null) {
+            node.relayLeave(username);
+        }
+    }
+    
+    // 其它节点的用户上线/下线，只通知本节点的用户
+    void announceRemoteJoin(String username) {
+        presence.remoteJoined(username);
+    }
+    
+    void announceRemoteLeave(String username) {
+        presence.left(username);
+    }
+    
+    /**
+     * 同一用户名同时在两个节点登录，本节点让出：断开本地用户，但不通知下线（该用户名仍在线）
+     */
+    void resolveConflict(String username) {
+        Registration registration = users.get(username);
+        if (registration != null && unregister(username, registration) != null) {
+            registration.session.disconnect("用户名 " + username + " 已在集群其它节点登录");
+        }
+    }
+    
+    // 本节点是否登记了该用户名（包括登录中的）
+    boolean isLocalUser(String username) {
+        return users.containsKey(username);
+    }
+    
+    /**
+     * 发布一批上线/下线：每类一条花名册增量、一条系统通知，新用户各收到一份快照
+     */
+    void publishPresence(Map<String, ClientSession> joined, Collection<String> left) {
+        List<ClientSession> newcomers = new ArrayList<>();
+        List<String> joinedNames = new ArrayList<>();
+        List<String> localNames = new ArrayList<>();
+        for (Map.Entry<String, ClientSession> entry : joined.entrySet()) {
+            ClientSession session = entry.getValue();
+            if (session == null) {
+                joinedNames.add(entry.getKey()); // 其它节点的用户
+            } else if (!session.isClosed()) {
+                newcomers.add(session);
+                joinedNames.add(entry.getKey());
+                localNames.add(entry.getKey());
+            }
+        }
+        for (RosterListener listener : rosterListeners) {
+            listener.rosterChanged(localNames, left);
+        }
+        // 持锁只分配版本号并按版本顺序入队，入队从不阻塞，慢客户端不会拖住其他人的上下线
+        synchronized (rosterLock) {
+            if (!left.isEmpty()) {
+                rosterVersion++;
+                Message delta = new Message("USER_LEFT", "系统", String.join(",", left));
+                delta.setSeq(rosterVersion);
+                EncodedMessage encoded = new EncodedMessage(delta);
+                for (Registration registration : users.values()) {
+                    registration.session.trySend(encoded);
+                }
+            }
+            if (!joinedNames.isEmpty()) {
+                rosterVersion++;
+                Message delta = new Message("USER_JOINED", "系统", String.join(",", joinedNames));
+                delta.setSeq(rosterVersion);
+                EncodedMessage encoded = new EncodedMessage(delta);
+                Set<ClientSession> skip = Collections.newSetFromMap(new IdentityHashMap<>());
+                skip.addAll(newcomers);
+                for (Registration registration : users.values()) {
+                    if (!skip.contains(registration.session)) {
+                        registration.session.trySend(encoded);
+                    }
+                }
+                EncodedMessage snapshot = new EncodedMessage(rosterSnapshot());
+                for (ClientSession session : newcomers) {
+                    session.trySend(snapshot);
+                }
+            }
+        }
+        if (!left.isEmpty()) {
+            broadcastSystemMessage(describeNames(left) + " 离开了聊天室");
+        }
+        if (!joinedNames.isEmpty()) {
+            broadcastSystemMessage(describeNames(joinedNames) + " 加入了聊天室");
+        }
+    }
+    
+    // 人数较多时只列出前几个名字
+    private static String describeNames(Collection<String> names) {
+        final int maxListed = 10;
+        if (names.size() == 1) {
+            return names.iterator().next();
+        }
+        StringJoiner joiner = new StringJoiner("、");
+        int listed = 0;
+        for (String name : names) {
+            if (listed++ == maxListed) {
+                break;
+            }
+            joiner.add(name);
+        }
+        return names.size() > maxListed ? joiner + " 等" + names.size() + "人" : joiner.toString();
+    }
+    
+    /**
+     * 向单个会话发送完整花名册快照（登录时或客户端发现版本缺口时）
+     * 花名册消息都不阻塞入队：队列已满时丢弃，客户端在下一条增量发现版本缺口后重新同步
+     */
+    public void sendRosterSnapshot(ClientSession session) {
+        synchronized (rosterLock) {
+            session.trySend(new EncodedMessage(rosterSnapshot()));
+        }
     }
     
+    /**
+     * 向所有人广播完整花名册快照
+     */
     public void broadcastUserList() {
-        List<String> userList = new ArrayList<>(users.keySet());
-        Message userListMsg = new Message("USER_LIST", "系统", 
-            String.join(",", userList));
-        broadcastMessage(userListMsg);
+        synchronized (rosterLock) {
+            EncodedMessage snapshot = new EncodedMessage(rosterSnapshot());
+            for (Registration registration : users.values()) {
+                registration.session.trySend(snapshot);
+            }
+        }
+    }
+    
+    private Message rosterSnapshot() {
+        Set<String> names = new TreeSet<>(getOnlineUsers());
+        ClusterNode node = cluster;
+        if (node != null) {
+            names.addAll(node.getRemoteUsers());
+        }
+        Message snapshot = new Message("ROSTER_SNAPSHOT", "系统", String.join(",", names));
+        snapshot.setSeq(rosterVersion);
+        return snapshot;
+    }
+    
+    public long getRosterVersion() {
+        synchronized (rosterLock) {
+            return rosterVersion;
+        }
+    }
+    
+    /**
+     * 向房间成员广播，开销只与房间人数有关
+     */
+    public void broadcastToRoom(String room, Message message) {
+        persist(message);
+        ClusterNode node = cluster;
+        if (node != null) {
+            node.relay(message);
+        }
+        rooms.broadcast(room, message);
+    }
+    
+    // 其它节点转发来的房间消息，只发给本节点的房间成员
+    void deliverFromCluster(Message message) {
+        String room = message.getTarget() != null ? message.getTarget() : RoomManager.LOBBY;
+        persist(message);
+        rooms.broadcast(room, message);
+    }
+    
+    // 其它节点转发来的私聊，接收者在本节点时送达，返回是否送达
+    boolean deliverPrivateFromCluster(Message message) {
+        ClientSession session = message.getTarget() != null ? getUserSession(message.getTarget()) : null;
+        if (session == null) {
+            return false;
+        }
+        try {
+            session.send(message);
+            return true;
+        } catch (IOException e) {
+            return false; // 连接已断开
+        }
+    }
+    
+    // 接收者所在节点发回的私聊结果，转给本节点的发送者
+    void deliverPrivateResult(Message result) {
+        ClientSession session = getUserSession(result.getSender());
+        if (session == null) {
+            return;
+        }
+        try {
+            if ("PRIVATE_ACK".equals(result.getType())) {
+                session.send(result);
+            } else {
+                session.send(new Message("SYSTEM", "系统", "用户 " + result.getTarget() + " 不在线，私聊未送达"));
+            }
+        } catch (IOException e) {
+            // 连接已断开
+        }
+    }
+    
+    public void addRosterListener(RosterListener listener) {
+        rosterListeners.add(listener);
+    }
+    
+    public void removeRosterListener(RosterListener listener) {
+        rosterListeners.remove(listener);
+    }
+    
+    public void setCluster(ClusterNode cluster) {
+        this.cluster = cluster;
+    }
+    
+    public ClusterNode getCluster() {
+        return cluster;
+    }
+    
+    // 聊天和系统消息在发出前写入聊天记录，并获得记录序号；聊天消息同时加入搜索索引
+    private void persist(Message message) {
+        boolean chat = "CHAT".equals(message.getType());
+        ChatLog log = chatLog;
+        if (log != null && (chat || "SYSTEM".equals(message.getType()))) {
+            log.append(message);
+        }
+        if (chat) {
+            searchIndex.add(message);
+        }
+    }
+    
+    public SearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+    
+    public void setChatLog(ChatLog chatLog) {
+        this.chatLog = chatLog;
+    }
+    
+    public ChatLog getChatLog() {
+        return chatLog;
+    }
+    
+    public RoomManager getRoomManager() {
+        return rooms;
     }
     
     // 获取所有在线用户
     public List<String> getOnlineUsers() {
-        return new ArrayList<>(users.keySet());
+        List<String> online = new ArrayList<>();
+        for (Map.Entry<String, Registration> entry : users.entrySet()) {
+            if (entry.getValue().isOnline()) {
+                online.add(entry.getKey());
+            }
+        }
+        return online;
+    }
+    
+    // 各用户发送队列状态：当前深度/历史最高/丢弃数/占用内存
+    public List<String> getOutboundStats() {
+        List<String> stats = new ArrayList<>();
+        for (Map.Entry<String, Registration> entry : users.entrySet()) {
+            ClientSession session = entry.getValue().session;
+            stats.add(entry.getKey() + " 队列=" + session.getQueueDepth()
+                + " 最高=" + session.getQueueHighWater()
+                + " 丢弃=" + session.getDroppedCount()
+                + " 缓冲=" + session.getBufferedBytes() / 1024 + "KB");
+        }
+        return stats;
+    }
+    
+    /**
+     * 停止服务器时收尾所有会话：拒绝新的登录，所有会话同时开始写出积压和告别消息，
+     * 各自的写线程并行写出；在同一个截止时间内等待，到时仍未写完的一起关闭
+     */
+    public DrainReport drainSessions(Message goodbye, long millis) {
+        draining = true;
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(millis);
+        EncodedMessage encoded = new EncodedMessage(goodbye);
+        List<String> names = new ArrayList<>();
+        List<ClientSession> sessions = new ArrayList<>();
+        for (Map.Entry<String, Registration> entry : users.entrySet()) {
+            names.add(entry.getKey());
+            sessions.add(entry.getValue().session);
+        }
+        int[] pending = new int[sessions.size()];
+        int[] discarded = new int[sessions.size()];
+        // 只入队不等待，各会话的写出互不影响
+        for (int i = 0; i < sessions.size(); i++) {
+            pending[i] = sessions.get(i).getQueueDepth();
+            discarded[i] = sessions.get(i).closeGracefully(encoded);
+        }
+        DrainReport report = new DrainReport();
+        List<ClientSession> unfinished = new ArrayList<>();
+        for (int i = 0; i < sessions.size(); i++) {
+            ClientSession session = sessions.get(i);
+            DrainReport.Outcome outcome;
+            if (discarded[i] < 0) {
+                outcome = DrainReport.Outcome.ALREADY_CLOSED;
+            } else if (!session.awaitDrained(Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())))) {
+                outcome = DrainReport.Outcome.TIMED_OUT;
+                unfinished.add(session);
+            } else {
+                outcome = discarded[i] > 0 ? DrainReport.Outcome.DISCARDED : DrainReport.Outcome.DRAINED;
+            }
+            report.add(new DrainReport.Entry(names.get(i), session.getRemoteAddress(), pending[i], Math.max(discarded[i], 0), outcome));
+        }
+        for (ClientSession session : unfinished) {
+            session.close();
+        }
+        report.setMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return report;
+    }
+    
+    // 正在停止服务器，不再接受登录
+    public boolean isDraining() {
+        return draining;
+    }
+    
+    public void setDraining(boolean draining) {
+        this.draining = draining;
     }
     
-    // 新增：获取用户输出流
-    public ObjectOutputStream getUserOutputStream(String username) {
-        return users.get(username);
+    // 获取在线用户的会话
+    public ClientSession getUserSession(String username) {
+        Registration registration = users.get(username);
+        return registration != null && registration.isOnline() ? registration.session : null;
     }
 }
\ No newline at end of file
@@ -0,0 +1,76 @@
+package client;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * 文件续传：只有来源一致的 .part 才从其末尾继续
+ */
+class FileTransfersTest {
+    private static final long SIZE = 3 * FileTransfers.CHUNK_SIZE;
+    private static final long MODIFIED = 1_700_000_000_000L;
+
+    @TempDir
+    File dir;
+
+    private FileTransfers.Incoming incoming(String sender, long size, long modified) {
+        return new FileTransfers.Incoming("id", sender, "report.bin", size, modified, new File(dir, "report.bin"));
+    }
+
+    // 模拟上次中断的接收：.part 中已有 received 字节，.part.info 记录来源
+    private static void interrupted(FileTransfers.Incoming transfer, long received) throws IOException {
+        Files.write(transfer.part.toPath(), new byte[(int) received]);
+        Files.write(transfer.info.toPath(), transfer.source, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void freshTransferStartsAtZero() throws IOException {
+        assertEquals(0, FileTransfers.resumeOffset(incoming("alice", SIZE, MODIFIED)));
+    }
+
+    @Test
+    void sameSourceResumesFromPartLength() throws IOException {
+        interrupted(incoming("alice", SIZE, MODIFIED), FileTransfers.CHUNK_SIZE + 100);
+        FileTransfers.Incoming retry = incoming("alice", SIZE, MODIFIED);
+        assertEquals(FileTransfers.CHUNK_SIZE + 100, FileTransfers.resumeOffset(retry));
+        assertTrue(retry.part.exists());
+    }
+
+    @Test
+    void offsetNeverExceedsFileSize() throws IOException {
+        interrupted(incoming("alice", SIZE, MODIFIED), SIZE + 10);
+        assertEquals(SIZE, FileTransfers.resumeOffset(incoming("alice", SIZE, MODIFIED)));
+    }
+
+    // 同名但来源不同（发送者、大小或修改时间不同）的 .part 被丢弃
+    @Test
+    void differentSourceRestartsFromZero() throws IOException {
+        FileTransfers.Incoming[] others = {
+            incoming("bob", SIZE, MODIFIED),
+            incoming("alice", SIZE + 1, MODIFIED),
+            incoming("alice", SIZE, MODIFIED + 1)
+        };
+        for (FileTransfers.Incoming other : others) {
+            interrupted(incoming("alice", SIZE, MODIFIED), FileTransfers.CHUNK_SIZE);
+            assertEquals(0, FileTransfers.resumeOffset(other));
+            assertFalse(other.part.exists());
+            assertFalse(other.info.exists());
+        }
+    }
+
+    // 没有来源记录的 .part（如旧版本留下的）无法确认，从头开始
+    @Test
+    void partWithoutInfoRestartsFromZero() throws IOException {
+        FileTransfers.Incoming transfer = incoming("alice", SIZE, MODIFIED);
+        Files.write(transfer.part.toPath(), new byte[100]);
+        assertEquals(0, FileTransfers.resumeOffset(transfer));
+        assertFalse(transfer.part.exists());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,212 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import common.Message;
+
+/**
+ * 分段聊天记录：重启恢复、半截和损坏记录的处理、按房间分页翻看历史
+ */
+class ChatLogTest {
+    @TempDir
+    File dir;
+
+    private static Message chat(String room, String content) {
+        Message message = new Message("CHAT", "tester", content);
+        message.setTarget(room);
+        return message;
+    }
+
+    private List<Message> replay() throws IOException {
+        List<Message> messages = new ArrayList<>();
+        ChatLog log = ChatLog.open(dir);
+        try {
+            log.replay(messages::add);
+        } finally {
+            log.close();
+        }
+        return messages;
+    }
+
+    private File[] segments() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".seg"));
+        Arrays.sort(files);
+        return files;
+    }
+
+    // 在段文件中找到第 n 条记录的起始位置（n 等于记录数时为最后一条记录之后）
+    private static int recordStart(FileChannel channel, int n) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        int position = 0;
+        for (int i = 0; i < n; i++) {
+            header.clear();
+            channel.read(header, position);
+            position += 8 + header.flip().getInt();
+        }
+        return position;
+    }
+
+    @Test
+    void reopenRecoversSequence() throws IOException {
+        ChatLog log = ChatLog.open(dir);
+        for (int i = 1; i <= 10; i++) {
+            log.append(chat(null, "m" + i));
+        }
+        log.close();
+
+        log = ChatLog.open(dir);
+        assertEquals(10, log.getRecoveredCount());
+        assertEquals(11, log.getNextSeq());
+        Message next = chat(null, "m11");
+        log.append(next);
+        assertEquals(11, next.getSeq());
+        log.close();
+
+        List<Message> messages = replay();
+        assertEquals(11, messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            assertEquals(i + 1, messages.get(i).getSeq());
+            assertEquals("m" + (i + 1), messages.get(i).getContent());
+        }
+    }
+
+    // 上次写到一半就崩溃：半截记录被清掉，新记录接着最后一条完整记录写
+    @Test
+    void recoveryDiscardsTruncatedRecord() throws IOException {
+        ChatLog log = ChatLog.open(dir);
+        for (int i = 1; i <= 5; i++) {
+            log.append(chat(null, "m" + i));
+        }
+        log.close();
+
+        try (FileChannel channel = FileChannel.open(segments()[0].toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer partial = ByteBuffer.allocate(20);
+            partial.putInt(200).putInt(0x12345678).put(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12}).flip();
+            channel.write(partial, recordStart(channel, 5));
+        }
+
+        log = ChatLog.open(dir);
+        assertEquals(5, log.getRecoveredCount());
+        assertEquals(6, log.getNextSeq());
+        log.append(chat(null, "m6"));
+        log.close();
+
+        List<Message> messages = replay();
+        assertEquals(6, messages.size());
+        assertEquals(6, messages.get(5).getSeq());
+        assertEquals("m6", messages.get(5).getContent());
+    }
+
+    // 校验和不符的记录及其后的内容都不再采信
+    @Test
+    void recoveryStopsAtCorruptRecord() throws IOException {
+        ChatLog log = ChatLog.open(dir);
+        for (int i = 1; i <= 5; i++) {
+            log.append(chat(null, "m" + i));
+        }
+        log.close();
+
+        try (FileChannel channel = FileChannel.open(segments()[0].toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            int position = recordStart(channel, 2) + 8 + 6;
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, position);
+            b.put(0, (byte) (b.get(0) ^ 0x5a)).rewind();
+            channel.write(b, position);
+        }
+
+        log = ChatLog.open(dir);
+        assertEquals(2, log.getRecoveredCount());
+        assertEquals(3, log.getNextSeq());
+        log.append(chat(null, "new"));
+        log.close();
+
+        List<Message> messages = replay();
+        assertEquals(3, messages.size());
+        assertEquals("m2", messages.get(1).getContent());
+        assertEquals(3, messages.get(2).getSeq());
+        assertEquals("new", messages.get(2).getContent());
+    }
+
+    @Test
+    void historyFiltersRoomAndType() throws IOException {
+        ChatLog log = ChatLog.open(dir);
+        try {
+            log.append(chat("A", "a1"));
+            log.append(chat(null, "lobby"));
+            log.append(new Message("SYSTEM", "系统", "notice"));
+            log.append(chat("A", "a2"));
+            log.append(chat("B", "b1"));
+
+            List<Message> a = log.history("A", 0, 10);
+            assertEquals(List.of("a1", "a2"), a.stream().map(Message::getContent).toList());
+            List<Message> lobby = log.history(RoomManager.LOBBY, 0, 10);
+            assertEquals(List.of("lobby"), lobby.stream().map(Message::getContent).toList());
+            assertTrue(log.history("C", 0, 10).isEmpty());
+        } finally {
+            log.close();
+        }
+    }
+
+    // 跨越多个段和多个索引块向前翻页，每页升序、页与页之间不重不漏
+    @Test
+    void historyPagesAcrossSegments() throws IOException {
+        char[] filler = new char[1000];
+        Arrays.fill(filler, 'x');
+        String padding = new String(filler);
+        List<Long> expected = new ArrayList<>();
+        ChatLog log = ChatLog.open(dir);
+        try {
+            for (int i = 0; i < 6000; i++) {
+                Message message = chat(i % 3 == 0 ? "A" : "B", i + padding);
+                log.append(message);
+                if (i % 3 == 0) {
+                    expected.add(message.getSeq());
+                }
+            }
+            assertTrue(segments().length > 1, "数据量不足以换段");
+
+            List<Long> seen = new ArrayList<>();
+            long before = 0;
+            List<Message> page;
+            while (!(page = log.history("A", before, 70)).isEmpty()) {
+                assertTrue(page.size() <= 70);
+                for (int i = 1; i < page.size(); i++) {
+                    assertTrue(page.get(i - 1).getSeq() < page.get(i).getSeq());
+                }
+                List<Long> seqs = new ArrayList<>(page.stream().map(Message::getSeq).toList());
+                seqs.addAll(seen);
+                seen = seqs;
+                before = page.get(0).getSeq();
+            }
+            assertEquals(expected, seen);
+        } finally {
+            log.close();
+        }
+    }
+
+    @Test
+    void historyFromMiddleReturnsOlderMessages() throws IOException {
+        ChatLog log = ChatLog.open(dir);
+        try {
+            for (int i = 1; i <= 200; i++) {
+                log.append(chat(null, "m" + i));
+            }
+            List<Message> page = log.history(RoomManager.LOBBY, 150, 5);
+            assertEquals(List.of(145L, 146L, 147L, 148L, 149L), page.stream().map(Message::getSeq).toList());
+        } finally {
+            log.close();
+        }
+    }
+}
\ No newline at end of file
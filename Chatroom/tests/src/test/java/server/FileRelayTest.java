@@ -0,0 +1,80 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import common.Message;
+
+/**
+ * 服务器转发文件块：限额按传输计算，只有超出窗口的传输被取消
+ */
+class FileRelayTest {
+    private final UserManager userManager = new UserManager();
+    private final ChatProtocol protocol = new ChatProtocol(userManager);
+    private MemorySession alice;
+    private MemorySession bob;
+
+    @BeforeEach
+    void login() throws IOException {
+        alice = new MemorySession(protocol);
+        bob = new MemorySession(protocol);
+        protocol.handle(alice, new Message("LOGIN", "alice", ""));
+        protocol.handle(bob, new Message("LOGIN", "bob", ""));
+        // bob 不读取，文件块积压在他的发送队列中
+        bob.setPaused(true);
+    }
+
+    private void chunk(String transfer, long offset) throws IOException {
+        Message message = new Message("FILE_CHUNK", "alice", transfer + "\n" + offset);
+        message.setTarget("bob");
+        message.setData(new byte[1024]);
+        protocol.handle(alice, message);
+    }
+
+    private List<String> cancelled(MemorySession session) {
+        return session.getReceived().stream()
+            .filter(message -> "FILE_CANCEL".equals(message.getType()))
+            .map(Message::getContent)
+            .toList();
+    }
+
+    // 多个遵守窗口的传输同时发给一个慢速接收者，互不挤占
+    @Test
+    void compliantTransfersShareSlowRecipient() throws IOException {
+        int window = OutboundQueue.BULK_CAPACITY / 2;
+        for (int i = 0; i < window; i++) {
+            chunk("t1", i);
+            chunk("t2", i);
+            chunk("t3", i);
+        }
+        assertTrue(cancelled(alice).isEmpty());
+        bob.setPaused(false);
+        assertEquals(3 * window, bob.getReceived().stream().filter(message -> "FILE_CHUNK".equals(message.getType())).count());
+    }
+
+    @Test
+    void onlyTransferExceedingWindowIsCancelled() throws IOException {
+        chunk("t2", 0);
+        for (int i = 0; i <= OutboundQueue.BULK_CAPACITY; i++) {
+            chunk("t1", i);
+        }
+        assertEquals(List.of("t1\n发送过快"), cancelled(alice));
+        chunk("t2", 1);
+        assertEquals(1, cancelled(alice).size());
+        bob.setPaused(false);
+        assertEquals(List.of("t1\n发送过快"), cancelled(bob));
+    }
+
+    @Test
+    void chunkToOfflineUserIsCancelled() throws IOException {
+        Message message = new Message("FILE_CHUNK", "alice", "t1\n0");
+        message.setTarget("nobody");
+        protocol.handle(alice, message);
+        assertEquals(1, cancelled(alice).size());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,63 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import common.Message;
+
+/**
+ * 测试用的内存会话：入队的消息立即取出并记下，不经过网络
+ */
+class MemorySession extends ClientSession {
+    private final List<Message> received = new ArrayList<>();
+    private boolean paused; // 暂停时消息留在发送队列中，模拟不读取的慢速客户端
+
+    MemorySession(ChatProtocol protocol) {
+        super(protocol);
+    }
+
+    protected int inboundBufferBytes() {
+        return 0;
+    }
+
+    // 同一会话可能被多个线程同时发送，取出放在锁内
+    protected synchronized void scheduleWrite() {
+        if (paused) {
+            return;
+        }
+        EncodedMessage message;
+        while ((message = outbound.poll()) != null) {
+            received.add(message.getMessage());
+            outbound.written();
+        }
+        onDrained();
+    }
+
+    synchronized void setPaused(boolean paused) {
+        this.paused = paused;
+        if (!paused) {
+            scheduleWrite();
+        }
+    }
+
+    synchronized List<Message> getReceived() {
+        return new ArrayList<>(received);
+    }
+
+    synchronized boolean hasReceived(String type) {
+        for (Message message : received) {
+            if (type.equals(message.getType())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String getRemoteAddress() {
+        return "memory";
+    }
+
+    protected void closeTransport() {
+        // 没有底层连接
+    }
+}
\ No newline at end of file
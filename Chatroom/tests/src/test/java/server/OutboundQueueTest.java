@@ -0,0 +1,257 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import common.Message;
+
+/**
+ * 会话发送队列：溢出策略、字节预算和文件块通道的限额
+ */
+class OutboundQueueTest {
+    private static final long UNLIMITED = Long.MAX_VALUE / 2;
+
+    private static EncodedMessage message(String content) {
+        return new EncodedMessage(new Message("CHAT", "tester", content));
+    }
+
+    private static String content(EncodedMessage message) {
+        return message.getMessage().getContent();
+    }
+
+    // 写线程取出并写完一条
+    private static EncodedMessage take(OutboundQueue queue) {
+        EncodedMessage message = queue.poll();
+        if (message != null) {
+            queue.written();
+        }
+        return message;
+    }
+
+    @Test
+    void disconnectPolicyRejectsWhenFull() {
+        OutboundQueue queue = new OutboundQueue(2, UNLIMITED, OverflowPolicy.DISCONNECT);
+        assertTrue(queue.offer(message("1"), 10, true));
+        assertTrue(queue.offer(message("2"), 10, true));
+        assertFalse(queue.offer(message("3"), 10, true));
+        assertEquals(2, queue.size());
+        assertEquals(1, queue.getDropped());
+        assertEquals("1", content(take(queue)));
+    }
+
+    @Test
+    void dropOldestKeepsNewestMessages() {
+        OutboundQueue queue = new OutboundQueue(3, UNLIMITED, OverflowPolicy.DROP_OLDEST);
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(queue.offer(message(Integer.toString(i)), 10, false));
+        }
+        assertEquals(2, queue.getDropped());
+        assertEquals("3", content(take(queue)));
+        assertEquals("4", content(take(queue)));
+        assertEquals("5", content(take(queue)));
+        assertNull(take(queue));
+    }
+
+    // 环形数组绕过末尾后仍按入队顺序取出
+    @Test
+    void ringPreservesOrderAcrossWrap() {
+        OutboundQueue queue = new OutboundQueue(4, UNLIMITED, OverflowPolicy.DISCONNECT);
+        int next = 0;
+        int expected = 0;
+        for (int round = 0; round < 10; round++) {
+            while (queue.size() < 3) {
+                assertTrue(queue.offer(message(Integer.toString(next++)), 1, false));
+            }
+            assertEquals(Integer.toString(expected++), content(take(queue)));
+            assertEquals(Integer.toString(expected++), content(take(queue)));
+        }
+        assertEquals(3, queue.getHighWater());
+    }
+
+    @Test
+    void dropOldestEvictsUntilBytesFit() {
+        OutboundQueue queue = new OutboundQueue(10, 100, OverflowPolicy.DROP_OLDEST);
+        assertTrue(queue.offer(message("a"), 40, false));
+        assertTrue(queue.offer(message("b"), 40, false));
+        assertTrue(queue.offer(message("c"), 40, false));
+        assertEquals(1, queue.getDropped());
+        assertEquals(80, queue.getBufferedBytes());
+        assertEquals("b", content(take(queue)));
+    }
+
+    @Test
+    void byteBudgetRejectsBeforeCapacity() {
+        OutboundQueue queue = new OutboundQueue(10, 100, OverflowPolicy.DISCONNECT);
+        assertTrue(queue.offer(message("a"), 60, true));
+        assertFalse(queue.offer(message("b"), 60, true));
+        assertEquals(1, queue.size());
+    }
+
+    // 超过预算的单条消息在队列为空时仍能发出
+    @Test
+    void oversizedMessageFitsIntoEmptyQueue() {
+        OutboundQueue queue = new OutboundQueue(10, 100, OverflowPolicy.DISCONNECT);
+        assertTrue(queue.offer(message("big"), 500, true));
+        assertFalse(queue.offer(message("small"), 1, true));
+    }
+
+    // 正在写出的消息仍占用预算，写完后才释放
+    @Test
+    void inFlightBytesCountUntilWritten() {
+        OutboundQueue queue = new OutboundQueue(10, 100, OverflowPolicy.DISCONNECT);
+        assertTrue(queue.offer(message("a"), 60, true));
+        assertNotNull(queue.poll());
+        assertTrue(queue.offer(message("b"), 30, true));
+        assertFalse(queue.offer(message("c"), 30, true));
+        queue.written();
+        assertTrue(queue.offer(message("c"), 30, true));
+    }
+
+    @Test
+    void blockPolicyTimesOut() {
+        OutboundQueue queue = new OutboundQueue(1, UNLIMITED, OverflowPolicy.BLOCK);
+        assertTrue(queue.offer(message("1"), 10, true));
+        long start = System.nanoTime();
+        assertFalse(queue.offer(message("2"), 10, true));
+        long waited = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(waited >= OutboundQueue.BLOCK_MILLIS - 10, "只等了 " + waited + "ms");
+        assertEquals(1, queue.getDropped());
+    }
+
+    // 不允许阻塞的线程（事件循环）在阻塞策略下立即失败
+    @Test
+    void blockPolicyNeverBlocksNonBlockingCaller() {
+        OutboundQueue queue = new OutboundQueue(1, UNLIMITED, OverflowPolicy.BLOCK);
+        assertTrue(queue.offer(message("1"), 10, false));
+        long start = System.nanoTime();
+        assertFalse(queue.offer(message("2"), 10, false));
+        assertTrue(System.nanoTime() - start < OutboundQueue.BLOCK_MILLIS * 1_000_000 / 2);
+    }
+
+    @Test
+    void blockPolicyResumesWhenWriterDrains() throws Exception {
+        OutboundQueue queue = new OutboundQueue(1, UNLIMITED, OverflowPolicy.BLOCK);
+        assertTrue(queue.offer(message("1"), 10, true));
+        Thread writer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                return;
+            }
+            take(queue);
+        });
+        writer.start();
+        assertTrue(queue.offer(message("2"), 10, true));
+        writer.join();
+        assertEquals("2", content(take(queue)));
+        assertEquals(0, queue.getDropped());
+    }
+
+    @Test
+    void clearWakesBlockedSender() throws Exception {
+        OutboundQueue queue = new OutboundQueue(1, UNLIMITED, OverflowPolicy.BLOCK);
+        assertTrue(queue.offer(message("1"), 10, true));
+        Thread closer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.clear();
+        });
+        closer.start();
+        long start = System.nanoTime();
+        assertTrue(queue.offer(message("2"), 10, true));
+        assertTrue(System.nanoTime() - start < OutboundQueue.BLOCK_MILLIS * 1_000_000);
+        closer.join();
+    }
+
+    @Test
+    void chatMessagesGoBeforeFileChunks() {
+        OutboundQueue queue = new OutboundQueue(10, UNLIMITED, OverflowPolicy.DISCONNECT);
+        assertEquals(OutboundQueue.BulkResult.ACCEPTED, queue.offerBulk(message("chunk"), 1000, "t1"));
+        assertTrue(queue.offer(message("chat"), 10, true));
+        assertEquals("chat", content(take(queue)));
+        assertEquals("chunk", content(take(queue)));
+        assertTrue(queue.isEmpty());
+    }
+
+    // 文件块不占用聊天消息的字节预算
+    @Test
+    void fileChunksDoNotUseChatBudget() {
+        OutboundQueue queue = new OutboundQueue(10, 100, OverflowPolicy.DISCONNECT);
+        assertEquals(OutboundQueue.BulkResult.ACCEPTED, queue.offerBulk(message("chunk"), 10_000, "t1"));
+        assertTrue(queue.offer(message("a"), 50, true));
+        assertTrue(queue.offer(message("b"), 50, true));
+        assertEquals(10_100, queue.getBufferedBytes());
+    }
+
+    @Test
+    void bulkLaneLimitsEachTransferSeparately() {
+        OutboundQueue queue = new OutboundQueue(10, UNLIMITED, OverflowPolicy.DISCONNECT);
+        for (int i = 0; i < OutboundQueue.BULK_CAPACITY; i++) {
+            assertEquals(OutboundQueue.BulkResult.ACCEPTED, queue.offerBulk(message("t1-" + i), 100, "t1"));
+        }
+        assertEquals(OutboundQueue.BulkResult.WINDOW_EXCEEDED, queue.offerBulk(message("t1-x"), 100, "t1"));
+        // 另一个遵守窗口的传输不受影响
+        for (int i = 0; i < OutboundQueue.BULK_CAPACITY; i++) {
+            assertEquals(OutboundQueue.BulkResult.ACCEPTED, queue.offerBulk(message("t2-" + i), 100, "t2"));
+        }
+        assertEquals(1, queue.getDropped());
+        // 写出一块后该传输又可以入队
+        assertEquals("t1-0", content(take(queue)));
+        assertEquals(OutboundQueue.BulkResult.ACCEPTED, queue.offerBulk(message("t1-x"), 100, "t1"));
+    }
+
+    @Test
+    void bulkLaneLimitsConcurrentTransfers() {
+        OutboundQueue queue = new OutboundQueue(10, UNLIMITED, OverflowPolicy.DISCONNECT);
+        for (int i = 0; i < OutboundQueue.BULK_MAX_TRANSFERS; i++) {
+            assertEquals(OutboundQueue.BulkResult.ACCEPTED, queue.offerBulk(message("c"), 100, "t" + i));
+        }
+        assertEquals(OutboundQueue.BulkResult.TOO_MANY_TRANSFERS, queue.offerBulk(message("c"), 100, "extra"));
+        assertEquals(OutboundQueue.BulkResult.ACCEPTED, queue.offerBulk(message("c"), 100, "t0"));
+        // 传输的块全部写出后让出名额
+        take(queue);
+        take(queue);
+        assertEquals(OutboundQueue.BulkResult.ACCEPTED, queue.offerBulk(message("c"), 100, "extra"));
+    }
+
+    @Test
+    void replaceAllCountsChatAndFileChunks() {
+        OutboundQueue queue = new OutboundQueue(10, UNLIMITED, OverflowPolicy.DISCONNECT);
+        queue.offer(message("a"), 10, true);
+        queue.offer(message("b"), 10, true);
+        for (int i = 0; i < 3; i++) {
+            queue.offerBulk(message("chunk"), 100, "t1");
+        }
+        queue.replaceAll(message("bye"), 10);
+        assertEquals(5, queue.getDropped());
+        assertEquals("bye", content(take(queue)));
+        assertNull(take(queue));
+        assertEquals(OutboundQueue.BulkResult.ACCEPTED, queue.offerBulk(message("chunk"), 100, "t1"));
+    }
+
+    @Test
+    void discardBulkKeepsChatMessages() {
+        OutboundQueue queue = new OutboundQueue(10, UNLIMITED, OverflowPolicy.DISCONNECT);
+        queue.offer(message("a"), 10, true);
+        queue.offerBulk(message("chunk"), 100, "t1");
+        queue.offerBulk(message("chunk"), 100, "t2");
+        assertEquals(2, queue.discardBulk());
+        assertEquals(2, queue.getDropped());
+        assertEquals("a", content(take(queue)));
+        assertTrue(queue.awaitDrained(100));
+    }
+
+    @Test
+    void awaitDrainedWaitsForInFlightMessage() {
+        OutboundQueue queue = new OutboundQueue(10, UNLIMITED, OverflowPolicy.DISCONNECT);
+        queue.offer(message("a"), 10, true);
+        assertNotNull(queue.poll());
+        assertFalse(queue.awaitDrained(20));
+        queue.written();
+        assertTrue(queue.awaitDrained(20));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,132 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import common.Message;
+import common.SearchQuery;
+
+/**
+ * 倒排索引：切词、多词项求交集、发送者/房间/时间过滤、分页和容量淘汰
+ */
+class SearchIndexTest {
+    private static final Set<String> ALL_ROOMS = Set.of(RoomManager.LOBBY, "A");
+
+    private long seq;
+
+    private Message add(SearchIndex index, String sender, String room, String content, long time) {
+        Message message = new Message("CHAT", sender, content, time);
+        message.setTarget(room);
+        message.setSeq(++seq);
+        index.add(message);
+        return message;
+    }
+
+    private static SearchQuery query(String text) {
+        return new SearchQuery(text, "", 0, 0, 0);
+    }
+
+    private static List<Long> seqs(SearchIndex.Result result) {
+        return result.getHits().stream().map(Message::getSeq).toList();
+    }
+
+    @Test
+    void tokenizeSplitsCjkIntoUnigramsAndBigrams() {
+        assertEquals(List.of("hello", "world42", "你", "你好", "好", "好吗", "吗"),
+            SearchIndex.tokenize("Hello, World42 你好吗?"));
+        assertTrue(SearchIndex.tokenize(null).isEmpty());
+        assertTrue(SearchIndex.tokenize("  ,.!").isEmpty());
+    }
+
+    @Test
+    void allTermsMustMatch() {
+        SearchIndex index = new SearchIndex();
+        add(index, "alice", null, "deploy the server", 1);
+        add(index, "bob", null, "server is down", 2);
+        add(index, "carol", null, "deploy finished, server up", 3);
+        add(index, "dave", null, "deploy tomorrow", 4);
+
+        SearchIndex.Result result = index.search(query("server deploy"), ALL_ROOMS);
+        assertEquals(2, result.getTotal());
+        // 从新到旧
+        assertEquals(List.of(3L, 1L), seqs(result));
+        assertEquals(0, index.search(query("server missing"), ALL_ROOMS).getTotal());
+    }
+
+    @Test
+    void cjkPhraseMatchesThroughBigrams() {
+        SearchIndex index = new SearchIndex();
+        add(index, "alice", null, "明天开会", 1);
+        add(index, "bob", null, "会开明天", 2);
+        add(index, "carol", null, "今天不开", 3);
+
+        assertEquals(List.of(1L), seqs(index.search(query("天开"), ALL_ROOMS)));
+        assertEquals(List.of(2L, 1L), seqs(index.search(query("明天"), ALL_ROOMS)));
+    }
+
+    @Test
+    void senderIsIntersectedWithKeywords() {
+        SearchIndex index = new SearchIndex();
+        add(index, "alice", null, "hello", 1);
+        add(index, "bob", null, "hello", 2);
+        add(index, "alice", null, "bye", 3);
+
+        assertEquals(List.of(1L), seqs(index.search(new SearchQuery("hello", "alice", 0, 0, 0), ALL_ROOMS)));
+        assertEquals(List.of(3L, 1L), seqs(index.search(new SearchQuery("", "alice", 0, 0, 0), ALL_ROOMS)));
+        assertEquals(0, index.search(new SearchQuery("", "", 0, 0, 0), ALL_ROOMS).getTotal());
+    }
+
+    @Test
+    void onlyVisibleRoomsAndTimeRangeMatch() {
+        SearchIndex index = new SearchIndex();
+        add(index, "alice", null, "news", 100);
+        add(index, "alice", "A", "news", 200);
+        add(index, "alice", "secret", "news", 300);
+
+        assertEquals(List.of(2L, 1L), seqs(index.search(query("news"), ALL_ROOMS)));
+        assertEquals(List.of(1L), seqs(index.search(query("news"), Set.of(RoomManager.LOBBY))));
+        assertEquals(List.of(2L), seqs(index.search(new SearchQuery("news", "", 150, 250, 0), ALL_ROOMS)));
+        assertEquals("A", index.search(new SearchQuery("news", "", 150, 0, 0), ALL_ROOMS).getHits().get(0).getTarget());
+    }
+
+    @Test
+    void resultsArePaged() {
+        SearchIndex index = new SearchIndex();
+        int hits = SearchQuery.PAGE_SIZE * 2 + 5;
+        for (int i = 0; i < hits; i++) {
+            add(index, "alice", null, "ping " + i, i);
+            add(index, "bob", null, "other", i);
+        }
+        SearchIndex.Result first = index.search(query("ping"), ALL_ROOMS);
+        assertEquals(hits, first.getTotal());
+        assertEquals(SearchQuery.PAGE_SIZE, first.getHits().size());
+        assertEquals("ping " + (hits - 1), first.getHits().get(0).getContent());
+
+        SearchIndex.Result last = index.search(new SearchQuery("ping", "", 0, 0, 2), ALL_ROOMS);
+        assertEquals(hits, last.getTotal());
+        assertEquals(5, last.getHits().size());
+        assertEquals("ping 0", last.getHits().get(4).getContent());
+    }
+
+    // 超过容量时丢弃最老的四分之一，倒排表中的旧文档号一并删除
+    @Test
+    void oldestQuarterIsEvictedAtCapacity() {
+        SearchIndex index = new SearchIndex();
+        for (int i = 0; i < SearchIndex.MAX_DOCS; i++) {
+            add(index, "alice", null, "common doc" + i, i);
+        }
+        assertEquals(SearchIndex.MAX_DOCS, index.size());
+        add(index, "alice", null, "common latest", SearchIndex.MAX_DOCS);
+
+        int evicted = SearchIndex.MAX_DOCS / 4;
+        assertEquals(SearchIndex.MAX_DOCS - evicted + 1, index.size());
+        assertEquals(0, index.search(query("doc0"), ALL_ROOMS).getTotal());
+        assertEquals(1, index.search(query("doc" + evicted), ALL_ROOMS).getTotal());
+        assertEquals(index.size(), index.search(query("common"), ALL_ROOMS).getTotal());
+        assertEquals("common latest", index.search(query("common"), ALL_ROOMS).getHits().get(0).getContent());
+    }
+}
\ No newline at end of file
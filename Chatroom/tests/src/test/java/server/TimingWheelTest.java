@@ -0,0 +1,135 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 哈希时间轮：到期不早于登记的延迟、整圈和跨圈的定时项落在同一槽时按圈数区分、取消
+ */
+class TimingWheelTest {
+    private static final long TICK = 10;
+    private static final int SLOTS = 8;
+    private static final long REVOLUTION = TICK * SLOTS;
+    // 调度抖动的容忍上限
+    private static final long SLACK = 200;
+
+    private final TimingWheel wheel = new TimingWheel("test-wheel", TICK, SLOTS);
+
+    @AfterEach
+    void stop() {
+        wheel.stop();
+    }
+
+    // 登记后测量实际的到期时间（毫秒）
+    private long[] measure(long... delays) throws InterruptedException {
+        long[] elapsed = new long[delays.length];
+        CountDownLatch done = new CountDownLatch(delays.length);
+        for (int i = 0; i < delays.length; i++) {
+            int index = i;
+            long start = System.nanoTime();
+            wheel.schedule(() -> {
+                elapsed[index] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                done.countDown();
+            }, delays[i]);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        return elapsed;
+    }
+
+    @Test
+    void firesNoEarlierThanDelay() throws InterruptedException {
+        for (int round = 0; round < 20; round++) {
+            long delay = 1 + round * 7;
+            long elapsed = measure(delay)[0];
+            assertTrue(elapsed >= delay, "延迟 " + delay + "ms 的任务在 " + elapsed + "ms 时执行");
+            assertTrue(elapsed < delay + TICK + SLACK, "延迟 " + delay + "ms 的任务在 " + elapsed + "ms 时执行");
+        }
+    }
+
+    // 恰好一圈、两圈以及前后相差一个刻度的定时项：散列到同一个或相邻的槽，靠剩余圈数区分
+    @Test
+    void slotBoundariesRespectRounds() throws InterruptedException {
+        long[] delays = {
+            REVOLUTION - TICK, REVOLUTION, REVOLUTION + TICK,
+            2 * REVOLUTION - TICK, 2 * REVOLUTION, 2 * REVOLUTION + TICK
+        };
+        long[] elapsed = measure(delays);
+        for (int i = 0; i < delays.length; i++) {
+            assertTrue(elapsed[i] >= delays[i], "延迟 " + delays[i] + "ms 的任务在 " + elapsed[i] + "ms 时执行");
+            assertTrue(elapsed[i] < delays[i] + TICK + SLACK, "延迟 " + delays[i] + "ms 的任务在 " + elapsed[i] + "ms 时执行");
+        }
+    }
+
+    // 落在同一槽但圈数不同的定时项按到期先后执行
+    @Test
+    void sameSlotDifferentRoundsFireInOrder() throws InterruptedException {
+        ConcurrentLinkedQueue<Integer> order = new ConcurrentLinkedQueue<>();
+        CountDownLatch done = new CountDownLatch(3);
+        for (int revolutions = 3; revolutions >= 1; revolutions--) {
+            int id = revolutions;
+            wheel.schedule(() -> {
+                order.add(id);
+                done.countDown();
+            }, revolutions * REVOLUTION);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(1, 2, 3), new ArrayList<>(order));
+    }
+
+    @Test
+    void cancelledTimeoutNeverFires() throws InterruptedException {
+        AtomicInteger fired = new AtomicInteger();
+        TimingWheel.Timeout pending = wheel.schedule(fired::incrementAndGet, REVOLUTION / 2);
+        TimingWheel.Timeout slotted = wheel.schedule(fired::incrementAndGet, REVOLUTION * 2);
+        pending.cancel();
+        Thread.sleep(REVOLUTION);
+        // 已放入槽中、还要再转一圈的定时项
+        slotted.cancel();
+        CountDownLatch marker = new CountDownLatch(1);
+        wheel.schedule(marker::countDown, REVOLUTION * 2);
+        assertTrue(marker.await(5, TimeUnit.SECONDS));
+        assertEquals(0, fired.get());
+    }
+
+    // 任务中再登记的定时项不会在同一刻度内执行
+    @Test
+    void taskCanRescheduleItself() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1);
+        Runnable[] task = new Runnable[1];
+        task[0] = () -> {
+            if (runs.incrementAndGet() == SLOTS + 2) {
+                done.countDown();
+            } else {
+                wheel.schedule(task[0], TICK);
+            }
+        };
+        long start = System.nanoTime();
+        wheel.schedule(task[0], TICK);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= (SLOTS + 2) * TICK);
+    }
+
+    // 一个任务抛出异常不影响同一槽中的其它任务
+    @Test
+    void failingTaskDoesNotStopWheel() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        wheel.schedule(() -> {
+            throw new IllegalStateException("测试异常");
+        }, TICK);
+        wheel.schedule(done::countDown, TICK);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        CountDownLatch later = new CountDownLatch(1);
+        wheel.schedule(later::countDown, REVOLUTION);
+        assertTrue(later.await(5, TimeUnit.SECONDS));
+    }
+}
\ No newline at end of file
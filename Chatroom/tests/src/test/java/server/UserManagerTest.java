@@ -0,0 +1,160 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import common.Message;
+
+/**
+ * 用户登记表：预留、上线、移除的状态推进，以及登录、踢出、断开之间的竞争
+ */
+class UserManagerTest {
+    private static final int ROUNDS = 300;
+
+    private final UserManager userManager = new UserManager();
+    private final ChatProtocol protocol = new ChatProtocol(userManager);
+    private final ExecutorService pool = Executors.newFixedThreadPool(16);
+
+    @AfterEach
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void reserveIsExclusiveUntilRemoved() {
+        MemorySession first = new MemorySession(protocol);
+        MemorySession second = new MemorySession(protocol);
+        assertTrue(userManager.reserve("alice", first));
+        assertFalse(userManager.reserve("alice", second));
+        assertTrue(userManager.isUsernameTaken("alice"));
+        // 登录中的用户还不可见
+        assertNull(userManager.getUserSession("alice"));
+
+        assertFalse(userManager.activate("alice", second));
+        assertTrue(userManager.activate("alice", first));
+        assertFalse(userManager.activate("alice", first));
+        assertSame(first, userManager.getUserSession("alice"));
+
+        assertFalse(userManager.removeUser("alice", second));
+        assertTrue(userManager.removeUser("alice", first));
+        assertFalse(userManager.removeUser("alice", first));
+        assertFalse(userManager.isUsernameTaken("alice"));
+        assertTrue(userManager.reserve("alice", second));
+    }
+
+    // 登录完成前被移除：不算下线，随后的 activate 失败
+    @Test
+    void removeDuringLoginCancelsActivation() {
+        MemorySession session = new MemorySession(protocol);
+        assertTrue(userManager.reserve("bob", session));
+        assertFalse(userManager.removeUser("bob", session));
+        assertFalse(userManager.activate("bob", session));
+        assertFalse(userManager.isUsernameTaken("bob"));
+    }
+
+    @Test
+    void concurrentReserveHasSingleWinner() throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            String name = "user" + round;
+            CountDownLatch start = new CountDownLatch(1);
+            AtomicInteger winners = new AtomicInteger();
+            Future<?>[] futures = new Future<?>[8];
+            for (int i = 0; i < futures.length; i++) {
+                MemorySession session = new MemorySession(protocol);
+                futures[i] = pool.submit(() -> {
+                    start.await();
+                    if (userManager.addUser(name, session)) {
+                        winners.incrementAndGet();
+                    }
+                    return null;
+                });
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+            assertEquals(1, winners.get(), name);
+        }
+    }
+
+    // 踢出与断开同时发生：只有一方移除用户，且用户名最终被释放
+    @Test
+    void kickAndDisconnectRemoveOnce() throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            String name = "kick" + round;
+            MemorySession session = new MemorySession(protocol);
+            assertTrue(userManager.addUser(name, session));
+            CountDownLatch start = new CountDownLatch(1);
+            Future<?> kick = pool.submit(() -> {
+                start.await();
+                userManager.kickUser(name);
+                return null;
+            });
+            Future<Boolean> remove = pool.submit(() -> {
+                start.await();
+                return userManager.removeUser(name, session);
+            });
+            start.countDown();
+            kick.get(5, TimeUnit.SECONDS);
+            boolean removed = remove.get(5, TimeUnit.SECONDS);
+            assertNotEquals(removed, session.hasReceived("FORCE_LOGOUT"), name);
+            assertFalse(userManager.isUsernameTaken(name), name);
+        }
+    }
+
+    // 登录过程中连接断开：无论断开发生在登录的哪一步，用户名都被释放，会话也不会留在大厅
+    @Test
+    void loginRacingDisconnectLeavesNothingBehind() throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            String name = "race" + round;
+            MemorySession session = new MemorySession(protocol);
+            CountDownLatch start = new CountDownLatch(1);
+            Future<?> login = pool.submit(() -> {
+                start.await();
+                try {
+                    protocol.handle(session, new Message("LOGIN", name, ""));
+                } catch (IOException e) {
+                    // 会话已关闭，发送失败
+                }
+                return null;
+            });
+            Future<?> close = pool.submit(() -> {
+                start.await();
+                session.close();
+                return null;
+            });
+            start.countDown();
+            login.get(5, TimeUnit.SECONDS);
+            close.get(5, TimeUnit.SECONDS);
+            assertFalse(userManager.isUsernameTaken(name), name);
+            assertFalse(userManager.getRoomManager().isMember(RoomManager.LOBBY, session), name);
+        }
+        assertTrue(userManager.getOnlineUsers().isEmpty());
+    }
+
+    @Test
+    void loginFailsForTakenName() throws IOException {
+        MemorySession first = new MemorySession(protocol);
+        MemorySession second = new MemorySession(protocol);
+        protocol.handle(first, new Message("LOGIN", "carol", ""));
+        protocol.handle(second, new Message("LOGIN", "carol", ""));
+        assertTrue(first.hasReceived("LOGIN_SUCCESS"));
+        assertTrue(second.hasReceived("LOGIN_FAIL"));
+        assertNull(second.getUsername());
+        assertSame(first, userManager.getUserSession("carol"));
+
+        first.close();
+        assertNull(userManager.getUserSession("carol"));
+        assertFalse(userManager.getRoomManager().isMember(RoomManager.LOBBY, first));
+    }
+}
\ No newline at end of file